@@ -0,0 +1,270 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+
+/**
+ <p>
+ Represents a mutable real number as the unevaluated sum of two doubles,
+ hi + lo, with |lo| at most half an ulp of hi. That carries about 106 bits
+ of significand, enough to tell apart the pixels of views down to about
+ 1e-30 wide, at a small constant factor over plain doubles.
+ </p>
+ <p>
+ The arithmetic is built from the error-free transformations TwoSum, which
+ finds the rounding error of a sum, and TwoProd, which finds the rounding
+ error of a product. TwoProd uses Dekker's splitting, since Math.fma isn't
+ available on Java 7.
+ </p>
+ <p>
+ Like {@link FixedComplex}, the operations change the number in place and
+ allocate nothing, so an escape-time loop can run on a handful of these.
+ A DoubleDouble must not be used by several threads at once.
+ </p>
+ *
+ * @author Joey Bloom
+ */
+public class DoubleDouble
+{
+    //2^27 + 1, splits a double into two halves of 26 bits
+    private static final double SPLITTER = 134217729.0;
+
+    private double hi;
+    private double lo;
+
+    /**
+     * Constructs a DoubleDouble equal to 0.
+     */
+    public DoubleDouble()
+    {
+    }
+
+    /**
+     * Constructs a DoubleDouble equal to a BigDecimal, rounded to about
+     * 106 bits.
+     *
+     * @param value the value
+     */
+    public DoubleDouble(BigDecimal value)
+    {
+        set(value);
+    }
+
+    /**
+     * Returns the leading part of this number, which is also its value
+     * rounded to a double
+     * @return hi
+     */
+    public double hi()
+    {
+        return hi;
+    }
+
+    /**
+     * Returns the trailing part of this number
+     * @return lo
+     */
+    public double lo()
+    {
+        return lo;
+    }
+
+    /**
+     * Sets this number to a double.
+     *
+     * @param value the value
+     * @return this
+     */
+    public DoubleDouble set(double value)
+    {
+        hi = value;
+        lo = 0;
+        return this;
+    }
+
+    /**
+     * Sets this number to the value of another.
+     *
+     * @param other the number to copy
+     * @return this
+     */
+    public DoubleDouble set(DoubleDouble other)
+    {
+        hi = other.hi;
+        lo = other.lo;
+        return this;
+    }
+
+    /**
+     * Sets this number to a BigDecimal, rounded to about 106 bits.
+     *
+     * @param value the value
+     * @return this
+     */
+    public DoubleDouble set(BigDecimal value)
+    {
+        hi = value.doubleValue();
+        lo = value.subtract(new BigDecimal(hi)).doubleValue();
+        return this;
+    }
+
+    /**
+     * Adds another number to this one.
+     *
+     * @param augend the number to add
+     * @return this
+     */
+    public DoubleDouble add(DoubleDouble augend)
+    {
+        //TwoSum of the leading parts, then of the trailing parts
+        double s = hi + augend.hi;
+        double bb = s - hi;
+        double e = (hi - (s - bb)) + (augend.hi - bb);
+        double t = lo + augend.lo;
+        bb = t - lo;
+        double f = (lo - (t - bb)) + (augend.lo - bb);
+        e += t;
+        //renormalize twice so the trailing error is folded in
+        double u = s + e;
+        e = e - (u - s);
+        e += f;
+        hi = u + e;
+        lo = e - (hi - u);
+        return this;
+    }
+
+    /**
+     * Subtracts another number from this one.
+     *
+     * @param subtrahend the number to subtract
+     * @return this
+     */
+    public DoubleDouble subtract(DoubleDouble subtrahend)
+    {
+        double s = hi - subtrahend.hi;
+        double bb = s - hi;
+        double e = (hi - (s - bb)) - (subtrahend.hi + bb);
+        double t = lo - subtrahend.lo;
+        bb = t - lo;
+        double f = (lo - (t - bb)) - (subtrahend.lo + bb);
+        e += t;
+        double u = s + e;
+        e = e - (u - s);
+        e += f;
+        hi = u + e;
+        lo = e - (hi - u);
+        return this;
+    }
+
+    /**
+     * Adds a double to this number.
+     *
+     * @param augend the number to add
+     * @return this
+     */
+    public DoubleDouble add(double augend)
+    {
+        double s = hi + augend;
+        double bb = s - hi;
+        double e = (hi - (s - bb)) + (augend - bb);
+        e += lo;
+        hi = s + e;
+        lo = e - (hi - s);
+        return this;
+    }
+
+    /**
+     * Multiplies this number by another.
+     *
+     * @param multiplicand the number to multiply by, which may be this
+     * @return this
+     */
+    public DoubleDouble multiply(DoubleDouble multiplicand)
+    {
+        double p = hi * multiplicand.hi;
+        double e = productError(hi, multiplicand.hi, p);
+        e += hi * multiplicand.lo + lo * multiplicand.hi;
+        hi = p + e;
+        lo = e - (hi - p);
+        return this;
+    }
+
+    /**
+     * Multiplies this number by a double.
+     *
+     * @param multiplicand the number to multiply by
+     * @return this
+     */
+    public DoubleDouble multiply(double multiplicand)
+    {
+        double p = hi * multiplicand;
+        double e = productError(hi, multiplicand, p);
+        e += lo * multiplicand;
+        hi = p + e;
+        lo = e - (hi - p);
+        return this;
+    }
+
+    /**
+     * Replaces this number with its square.
+     *
+     * @return this
+     */
+    public DoubleDouble square()
+    {
+        double p = hi * hi;
+        double e = productError(hi, hi, p);
+        e += 2 * hi * lo;
+        hi = p + e;
+        lo = e - (hi - p);
+        return this;
+    }
+
+    /**
+     * Returns the value of this number rounded to a double
+     * @return hi + lo, rounded
+     */
+    public double doubleValue()
+    {
+        return hi + lo;
+    }
+
+    /**
+     * Returns the exact value of this number
+     * @return hi + lo
+     */
+    public BigDecimal toBigDecimal()
+    {
+        return new BigDecimal(hi).add(new BigDecimal(lo));
+    }
+
+    /**
+     * Returns a String representation of this number
+     * @return the exact decimal value
+     */
+    @Override
+    public String toString()
+    {
+        return toBigDecimal().toString();
+    }
+
+    /**
+     * TwoProd: returns the rounding error of a product, so that
+     * a * b = p + productError(a, b, p) exactly.
+     *
+     * @param a a factor
+     * @param b the other factor
+     * @param p a * b, rounded
+     * @return a * b - p
+     */
+    public static double productError(double a, double b, double p)
+    {
+        //Dekker: split each factor into halves whose products are exact
+        double t = SPLITTER * a;
+        double aHi = t - (t - a);
+        double aLo = a - aHi;
+        t = SPLITTER * b;
+        double bHi = t - (t - b);
+        double bLo = b - bHi;
+        return ((aHi * bHi - p) + aHi * bLo + aLo * bHi) + aLo * bLo;
+    }
+}
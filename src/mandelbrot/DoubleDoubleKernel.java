@@ -0,0 +1,184 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Samples the Mandelbrot set in double-double precision, see
+ {@link DoubleDouble}.
+ <p/>
+ The iteration is the same as {@link MandelbrotKernel}'s, but every
+ coordinate carries about 106 bits, so views down to about 1e-30 wide
+ resolve every pixel without a BigDecimal in sight. It costs several times
+ as much per iteration as plain doubles, which is still far cheaper than
+ {@link PerturbationKernel}'s reference orbits at moderate depths.
+ <p/>
+ The coordinates of a pixel are found from the center of the view, which
+ is given in full precision, plus the pixel's offset from the center
+ pixel; a double couldn't hold the left edge of a deep view.
+ <p/>
+ Interior pixels are found by periodicity checking only. The closed-form
+ cardioid and bulb tests are computed in doubles, which can't be trusted
+ this close to the boundary of the set.
+ <p/>
+ @author Joey Bloom
+ */
+public class DoubleDoubleKernel extends EscapeKernel
+{
+    //how close, as a fraction of the distance between pixels, an
+    //orbit must come back to itself to be considered periodic
+    private static final double PERIODICITY_TOLERANCE = 1e-3;
+
+    private final DoubleDouble centerA;
+    private final DoubleDouble centerB;
+    private final double centerX;
+    private final double centerY;
+    private final boolean interiorDetection;
+    private final double epsilon;
+    private final AtomicLong skippedIterations = new AtomicLong();
+    //each thread's count of the iterations skipped by the call it is in,
+    //reused so that sampling a pixel doesn't allocate
+    private static final ThreadLocal<long[]> SKIPPED = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
+
+    /**
+     Constructs a DoubleDoubleKernel.
+     <p/>
+     @param frame             the frame whose pixels will be sampled; only
+                              its size, increments and iteration limit are
+                              used, since the position of the view is given
+                              by the center
+     @param centerA           real component of the center of the frame
+     @param centerB           imaginary component of the center of the frame
+     @param interiorDetection whether to use periodicity checking for
+                              interior pixels
+     */
+    public DoubleDoubleKernel(RenderFrame frame, BigDecimal centerA, BigDecimal centerB,
+        boolean interiorDetection)
+    {
+        super(frame);
+        this.centerA = new DoubleDouble(centerA);
+        this.centerB = new DoubleDouble(centerB);
+        centerX = frame.getWidth() / 2.0;
+        centerY = frame.getHeight() / 2.0;
+        this.interiorDetection = interiorDetection;
+        epsilon = PERIODICITY_TOLERANCE * Math.min(
+            Math.abs(frame.getHorizontalIncrement()),
+            Math.abs(frame.getVerticalIncrement()));
+    }
+
+    /**
+     Returns the total number of iterations that interior detection has
+     saved so far across every pixel sampled by this kernel.
+     <p/>
+     @return the number of skipped iterations
+     */
+    public long getSkippedIterations()
+    {
+        return skippedIterations.get();
+    }
+
+    @Override
+    public float sample(int x, int y)
+    {
+        long[] skipped = SKIPPED.get();
+        skipped[0] = 0;
+        float value = sample(x, y, skipped);
+        if(skipped[0] != 0)
+        {
+            skippedIterations.addAndGet(skipped[0]);
+        }
+        return value;
+    }
+
+    @Override
+    public void sampleRow(int y, int[] xs, int count, float[] out)
+    {
+        //the whole row's skipped iterations are added at once, so threads
+        //don't contend for the total once per interior pixel
+        long[] skipped = SKIPPED.get();
+        skipped[0] = 0;
+        for(int k = 0; k < count; k++)
+        {
+            out[k] = sample(xs[k], y, skipped);
+        }
+        if(skipped[0] != 0)
+        {
+            skippedIterations.addAndGet(skipped[0]);
+        }
+    }
+
+    //samples a pixel, adding the iterations that interior detection saves
+    //to skipped[0]
+    private float sample(int x, int y, long[] skipped)
+    {
+        final int itr = frame.getIterations();
+        //c = center + offset from the center pixel
+        final DoubleDouble cA = new DoubleDouble()
+            .set(x - centerX).multiply(frame.getHorizontalIncrement()).add(centerA);
+        final DoubleDouble cB = new DoubleDouble()
+            .set(y - centerY).multiply(frame.getVerticalIncrement()).add(centerB);
+
+        DoubleDouble zA = new DoubleDouble().set(cA); //real component of z
+        DoubleDouble zB = new DoubleDouble().set(cB); //imaginary component of z
+        DoubleDouble zA2 = new DoubleDouble();
+        DoubleDouble zB2 = new DoubleDouble();
+        //the saved point of Brent's cycle detection
+        DoubleDouble savedA = new DoubleDouble().set(zA);
+        DoubleDouble savedB = new DoubleDouble().set(zB);
+        int nextSave = 1;
+        for(int i = 0; i < itr; i++)
+        {
+            step(zA, zB, zA2, zB2, cA, cB); //z = z^2 + c
+            if(zA.hi() * zA.hi() + zB.hi() * zB.hi() > 4.0)//if escaped
+            {
+                //smooth coloring
+                //these two more iterations reduce the size
+                //of the error term
+                step(zA, zB, zA2, zB2, cA, cB);
+                step(zA, zB, zA2, zB2, cA, cB);
+                return PaletteTable.smoothIteration(i, zA.hi() * zA.hi() + zB.hi() * zB.hi());
+            }
+            if(interiorDetection)
+            {
+                //the leading parts cancel exactly when the orbit is close
+                double dA = (zA.hi() - savedA.hi()) + (zA.lo() - savedA.lo());
+                double dB = (zB.hi() - savedB.hi()) + (zB.lo() - savedB.lo());
+                if(Math.abs(dA) < epsilon && Math.abs(dB) < epsilon)
+                {
+                    skipped[0] += itr - 1 - i;
+                    return IterationBuffer.INSIDE; //periodic orbit
+                }
+                if(i == nextSave)
+                {
+                    savedA.set(zA);
+                    savedB.set(zB);
+                    nextSave <<= 1;
+                }
+            }
+        }
+        return IterationBuffer.INSIDE; //if not escaped
+    }
+
+    //z = z^2 + c, using zA2 and zB2 as scratch
+    private static void step(DoubleDouble zA, DoubleDouble zB,
+        DoubleDouble zA2, DoubleDouble zB2, DoubleDouble cA, DoubleDouble cB)
+    {
+        zA2.set(zA).square();
+        zB2.set(zB).square();
+        zB.multiply(zA).multiply(2).add(cB); //2ab + cB
+        zA.set(zA2).subtract(zB2).add(cA);   //a^2 - b^2 + cA
+    }
+
+    @Override
+    public Symmetry getSymmetry()
+    {
+        return Symmetry.CONJUGATE;
+    }
+}
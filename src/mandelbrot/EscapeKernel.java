@@ -0,0 +1,110 @@
+package mandelbrot;
+
+/**
+ Computes the smooth iteration value of the pixels of one frame.
+ <p/>
+ A kernel is created for each frame on the render job's thread, and is
+ then sampled from many render threads at once, so implementations must not
+ change any state in {@link #sample(int, int)}, apart from recording the
+ pixel in the kernel's {@link OrbitStore}, if it has one, and adding to
+ thread safe statistics.
+ <p/>
+ @author Joey Bloom
+ */
+public abstract class EscapeKernel
+{
+    protected final RenderFrame frame;
+    //set by the render job while it samples the frame, so that the brute
+    //force comparison never touches the store
+    private OrbitStore orbits;
+
+    /**
+     Constructs an EscapeKernel for a frame.
+     <p/>
+     @param frame the frame whose pixels will be sampled
+     */
+    protected EscapeKernel(RenderFrame frame)
+    {
+        this.frame = frame;
+    }
+
+    /**
+     Returns the frame that this kernel samples
+     @return the frame
+     */
+    public RenderFrame getFrame()
+    {
+        return frame;
+    }
+
+    /**
+     Determines the smooth iteration value of a pixel.
+     <p/>
+     @param x the x coordinate of a pixel on the screen
+     @param y the y coordinate of a pixel on the screen
+     @return the smooth iteration value, or IterationBuffer.INSIDE if the
+             pixel never escaped
+     */
+    public abstract float sample(int x, int y);
+
+    /**
+     Determines the smooth iteration values of several pixels on one row.
+     Kernels that can iterate several pixels at once override this; by
+     default each pixel is passed to {@link #sample(int, int)}.
+     <p/>
+     @param y     the y coordinate of the row
+     @param xs    the x coordinates of the pixels, in xs[0] to xs[count - 1]
+     @param count the number of pixels
+     @param out   receives the value of pixel xs[k] in out[k]
+     */
+    public void sampleRow(int y, int[] xs, int count, float[] out)
+    {
+        for(int k = 0; k < count; k++)
+        {
+            out[k] = sample(xs[k], y);
+        }
+    }
+
+    /**
+     Returns how many doubles of state this kernel saves per pixel to
+     continue an orbit later. By default kernels can't, and return 0.
+     <p/>
+     @return the state size, or 0 if orbits can't be resumed
+     */
+    public int getOrbitStateSize()
+    {
+        return 0;
+    }
+
+    /**
+     Returns the symmetry of the fractal this kernel computes, which lets
+     a {@link Mirror} copy half of a frame instead of sampling it. By
+     default kernels claim none.
+     <p/>
+     @return the symmetry
+     */
+    public Symmetry getSymmetry()
+    {
+        return Symmetry.NONE;
+    }
+
+    /**
+     Sets the store that sampled pixels are recorded in, and that orbits
+     are resumed from. Only used if {@link #getOrbitStateSize()} is positive.
+     <p/>
+     @param orbits the store, or null to stop recording
+     */
+    public void setOrbits(OrbitStore orbits)
+    {
+        this.orbits = orbits;
+    }
+
+    /**
+     Returns the store that sampled pixels are recorded in
+     @return the store, or null if pixels aren't being recorded
+     */
+    public OrbitStore getOrbits()
+    {
+        return orbits;
+    }
+}
@@ -0,0 +1,446 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ <p>
+ Represents a mutable complex number in binary fixed point, for the loops
+ where {@link BigComplex} would allocate several objects per iteration.
+ </p>
+ <p>
+ Each component is stored as a sign and a magnitude. The magnitude is an
+ array of limbs, each holding 32 bits in a long: limb 0 is the integer part
+ and the remaining limbs are successive 32-bit pieces of the fraction. The
+ caller chooses how many fraction bits to carry; results are truncated to
+ that many bits. The integer part is meant for the small values that appear
+ while iterating z = z^2 + c, not for general arithmetic.
+ </p>
+ <p>
+ All arithmetic happens in place, using scratch space allocated with the
+ number, so {@link #square()}, {@link #multiplyAdd(FixedComplex, FixedComplex)},
+ {@link #add(FixedComplex)} and {@link #magnitudeSquaredExceeds(int)}
+ allocate nothing. A FixedComplex must not be used by several threads at
+ once.
+ </p>
+ *
+ * @author Joey Bloom
+ */
+public class FixedComplex
+{
+    private static final long LIMB_MASK = 0xFFFFFFFFL;
+    private static final int LIMB_BITS = 32;
+
+    private final int limbs;
+    private final long[] a;
+    private final long[] b;
+    private boolean aNegative;
+    private boolean bNegative;
+    //scratch space for products
+    private final long[] column;
+    private final long[] aSquared;
+    private final long[] bSquared;
+    private final long[] ab;
+
+    /**
+     * Constructs a FixedComplex equal to 0.
+     *
+     * @param fractionBits the number of bits to carry after the binary
+     *                     point; rounded up to a multiple of 32
+     */
+    public FixedComplex(int fractionBits)
+    {
+        limbs = 1 + (Math.max(fractionBits, 1) + LIMB_BITS - 1) / LIMB_BITS;
+        a = new long[limbs];
+        b = new long[limbs];
+        column = new long[limbs + 1];
+        aSquared = new long[limbs];
+        bSquared = new long[limbs];
+        ab = new long[limbs];
+    }
+
+    /**
+     * Constructs a FixedComplex to represent a + bi, truncated to the given
+     * number of fraction bits.
+     *
+     * @param a the real component
+     * @param b the imaginary component
+     * @param fractionBits the number of bits to carry after the binary point
+     */
+    public FixedComplex(BigDecimal a, BigDecimal b, int fractionBits)
+    {
+        this(fractionBits);
+        set(a, b);
+    }
+
+    /**
+     * Returns the number of bits carried after the binary point
+     * @return the precision in bits
+     */
+    public int getFractionBits()
+    {
+        return (limbs - 1) * LIMB_BITS;
+    }
+
+    /**
+     * Sets this number to a + bi.
+     *
+     * @param real the real component
+     * @param imaginary the imaginary component
+     * @return this
+     */
+    public FixedComplex set(BigDecimal real, BigDecimal imaginary)
+    {
+        aNegative = toLimbs(real, a);
+        bNegative = toLimbs(imaginary, b);
+        return this;
+    }
+
+    /**
+     * Sets this number to the value of another with the same precision.
+     *
+     * @param other the number to copy
+     * @return this
+     */
+    public FixedComplex set(FixedComplex other)
+    {
+        checkPrecision(other);
+        System.arraycopy(other.a, 0, a, 0, limbs);
+        System.arraycopy(other.b, 0, b, 0, limbs);
+        aNegative = other.aNegative;
+        bNegative = other.bNegative;
+        return this;
+    }
+
+    /**
+     * Replaces this number with its square.
+     *
+     * @return this
+     */
+    public FixedComplex square()
+    {
+        //(a+bi)^2 = (a^2 - b^2) + 2abi
+        multiplyMagnitudes(a, a, aSquared);
+        multiplyMagnitudes(b, b, bSquared);
+        multiplyMagnitudes(a, b, ab);
+        boolean abNegative = aNegative != bNegative;
+        aNegative = addSigned(aSquared, false, bSquared, true, a);
+        //doubling can't overflow the integer limb for the values we use
+        shiftLeftOne(ab, b);
+        bNegative = abNegative && !isZero(b);
+        return this;
+    }
+
+    /**
+     * Replaces this number with this * multiplicand + augend. The
+     * multiplicand may be this number itself.
+     *
+     * @param multiplicand the number to multiply by
+     * @param augend the number to add
+     * @return this
+     */
+    public FixedComplex multiplyAdd(FixedComplex multiplicand, FixedComplex augend)
+    {
+        if(multiplicand == this)
+        {
+            square();
+        }
+        else
+        {
+            checkPrecision(multiplicand);
+            //(a+bi)(c+di) = (ac - bd) + (ad + bc)i
+            multiplyMagnitudes(a, multiplicand.a, aSquared);                   //ac
+            multiplyMagnitudes(b, multiplicand.b, bSquared);                   //bd
+            boolean acNegative = aNegative != multiplicand.aNegative;
+            boolean bdNegative = bNegative != multiplicand.bNegative;
+            multiplyMagnitudes(a, multiplicand.b, ab);                         //ad
+            boolean adNegative = aNegative != multiplicand.bNegative;
+            boolean bcNegative = bNegative != multiplicand.aNegative;
+            multiplyMagnitudes(b, multiplicand.a, b);                          //bc
+            bNegative = addSigned(ab, adNegative, b, bcNegative, b);
+            aNegative = addSigned(aSquared, acNegative, bSquared, !bdNegative, a);
+        }
+        return add(augend);
+    }
+
+    /**
+     * Adds another number with the same precision to this one.
+     *
+     * @param augend the number to add
+     * @return this
+     */
+    public FixedComplex add(FixedComplex augend)
+    {
+        checkPrecision(augend);
+        aNegative = addSigned(a, aNegative, augend.a, augend.aNegative, a);
+        bNegative = addSigned(b, bNegative, augend.b, augend.bNegative, b);
+        return this;
+    }
+
+    /**
+     * Returns whether a^2 + b^2 is greater than a limit. The test uses the
+     * top 64 bits of each component, which is plenty for an escape radius.
+     *
+     * @param limit the limit, such as 4 for the Mandelbrot escape radius
+     * @return true if the magnitude squared exceeds limit
+     */
+    public boolean magnitudeSquaredExceeds(int limit)
+    {
+        double real = realDouble();
+        double imaginary = imaginaryDouble();
+        return real * real + imaginary * imaginary > limit;
+    }
+
+    /**
+     * Returns the real component, rounded to a double
+     * @return a
+     */
+    public double realDouble()
+    {
+        return toDouble(a, aNegative);
+    }
+
+    /**
+     * Returns the imaginary component, rounded to a double
+     * @return b
+     */
+    public double imaginaryDouble()
+    {
+        return toDouble(b, bNegative);
+    }
+
+    /**
+     * Returns the exact value of this number as a BigComplex.
+     * @return an equal BigComplex
+     */
+    public BigComplex toBigComplex()
+    {
+        return new BigComplex(toBigDecimal(a, aNegative), toBigDecimal(b, bNegative));
+    }
+
+    /**
+     * Returns a String representation of this complex number
+     * @return a String of the form "a + bi"
+     */
+    @Override
+    public String toString()
+    {
+        return toBigComplex().toString();
+    }
+
+    private void checkPrecision(FixedComplex other)
+    {
+        if(other.limbs != limbs)
+        {
+            throw new IllegalArgumentException("precision mismatch: "
+                + getFractionBits() + " bits and " + other.getFractionBits() + " bits");
+        }
+    }
+
+    //stores |value| truncated to fixed point in limbs, returns the sign
+    private boolean toLimbs(BigDecimal value, long[] limbs)
+    {
+        BigInteger scaled = value.abs()
+            .multiply(new BigDecimal(BigInteger.ONE.shiftLeft(getFractionBits())))
+            .toBigInteger();
+        for(int i = this.limbs - 1; i >= 0; i--)
+        {
+            limbs[i] = scaled.longValue() & LIMB_MASK;
+            scaled = scaled.shiftRight(LIMB_BITS);
+        }
+        limbs[0] |= scaled.longValue() << LIMB_BITS;
+        return value.signum() < 0 && !isZero(limbs);
+    }
+
+    private BigDecimal toBigDecimal(long[] limbs, boolean negative)
+    {
+        BigInteger scaled = BigInteger.valueOf(limbs[0]);
+        for(int i = 1; i < this.limbs; i++)
+        {
+            scaled = scaled.shiftLeft(LIMB_BITS).or(BigInteger.valueOf(limbs[i]));
+        }
+        //x / 2^k = x * 5^k / 10^k, which is exact
+        int k = getFractionBits();
+        BigDecimal value = new BigDecimal(scaled.multiply(BigInteger.valueOf(5).pow(k)), k);
+        return negative ? value.negate() : value;
+    }
+
+    private double toDouble(long[] limbs, boolean negative)
+    {
+        double value = limbs[0];
+        double weight = 1.0;
+        for(int i = 1; i < Math.min(this.limbs, 3); i++)
+        {
+            weight /= 1L << LIMB_BITS;
+            value += limbs[i] * weight;
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean isZero(long[] limbs)
+    {
+        for(int i = 0; i < this.limbs; i++)
+        {
+            if(limbs[i] != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //out = x * y, truncated; out may be x or y
+    private void multiplyMagnitudes(long[] x, long[] y, long[] out)
+    {
+        //column k collects the products of weight 2^(-32k). Each
+        //32x32-bit product is split so the columns can't overflow,
+        //and one column past the last limb is kept for its carry.
+        for(int k = 0; k <= limbs; k++)
+        {
+            column[k] = 0;
+        }
+        for(int i = 0; i < limbs; i++)
+        {
+            long xi = x[i];
+            if(xi == 0)
+            {
+                continue;
+            }
+            for(int j = 0; i + j <= limbs && j < limbs; j++)
+            {
+                long product = xi * y[j];
+                int k = i + j;
+                if(k == 0)
+                {
+                    //the integer parts are small, so this fits
+                    column[0] += product;
+                }
+                else
+                {
+                    column[k] += product & LIMB_MASK;
+                    column[k - 1] += product >>> LIMB_BITS;
+                }
+            }
+        }
+        long carry = 0;
+        for(int k = limbs; k > 0; k--)
+        {
+            long sum = column[k] + carry;
+            if(k < limbs)
+            {
+                out[k] = sum & LIMB_MASK;
+            }
+            carry = sum >>> LIMB_BITS;
+        }
+        out[0] = column[0] + carry;
+    }
+
+    //out = x (signed) + y (signed), returns the sign of out; out may
+    //be x or y
+    private boolean addSigned(long[] x, boolean xNegative, long[] y, boolean yNegative, long[] out)
+    {
+        if(xNegative == yNegative)
+        {
+            long carry = 0;
+            for(int i = limbs - 1; i > 0; i--)
+            {
+                long sum = x[i] + y[i] + carry;
+                out[i] = sum & LIMB_MASK;
+                carry = sum >>> LIMB_BITS;
+            }
+            out[0] = x[0] + y[0] + carry;
+            return xNegative && !isZero(out);
+        }
+        //different signs: subtract the smaller magnitude from the larger
+        int comparison = compareMagnitudes(x, y);
+        if(comparison < 0)
+        {
+            long[] swap = x;
+            x = y;
+            y = swap;
+            xNegative = yNegative;
+        }
+        long borrow = 0;
+        for(int i = limbs - 1; i > 0; i--)
+        {
+            long difference = x[i] - y[i] - borrow;
+            borrow = difference < 0 ? 1 : 0;
+            out[i] = difference & LIMB_MASK;
+        }
+        out[0] = x[0] - y[0] - borrow;
+        return comparison != 0 && xNegative;
+    }
+
+    private int compareMagnitudes(long[] x, long[] y)
+    {
+        for(int i = 0; i < limbs; i++)
+        {
+            if(x[i] != y[i])
+            {
+                return x[i] < y[i] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    //out = 2x; out may be x
+    private void shiftLeftOne(long[] x, long[] out)
+    {
+        long carry = 0;
+        for(int i = limbs - 1; i > 0; i--)
+        {
+            long shifted = (x[i] << 1) | carry;
+            out[i] = shifted & LIMB_MASK;
+            carry = shifted >>> LIMB_BITS;
+        }
+        out[0] = (x[0] << 1) | carry;
+    }
+
+    /**
+     * Compares iterating z = z^2 + c with FixedComplex against BigComplex
+     * at 64, 128 and 512 bits of precision.
+     */
+    public static void main(String[] args)
+    {
+        BigDecimal cA = new BigDecimal("-0.2");
+        BigDecimal cB = new BigDecimal("0.3");
+        int iterations = 20000;
+        for(int bits : new int[]{64, 128, 512})
+        {
+            MathContext mc = new MathContext((int) Math.ceil(bits * Math.log10(2)), RoundingMode.HALF_EVEN);
+            long bigTime = Long.MAX_VALUE;
+            long fixedTime = Long.MAX_VALUE;
+            BigComplex big = null;
+            FixedComplex fixed = null;
+            for(int trial = 0; trial < 5; trial++)
+            {
+                //start both from the same c, since truncating c to a binary
+                //fraction moves the orbit
+                FixedComplex fc = new FixedComplex(cA, cB, bits);
+                BigComplex c = fc.toBigComplex();
+                long start = System.nanoTime();
+                big = c;
+                for(int i = 0; i < iterations; i++)
+                {
+                    big = big.multiply(big, mc).add(c, mc);
+                }
+                bigTime = Math.min(bigTime, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                fixed = new FixedComplex(bits).set(fc);
+                for(int i = 0; i < iterations; i++)
+                {
+                    fixed.square();
+                    fixed.add(fc);
+                }
+                fixedTime = Math.min(fixedTime, System.nanoTime() - start);
+            }
+            System.out.println(bits + " bits: BigComplex " + bigTime / iterations + " ns/iteration, "
+                + "FixedComplex " + fixedTime / iterations + " ns/iteration");
+            System.out.println("    BigComplex   z = " + big.a().round(new MathContext(12)) + ", " + big.b().round(new MathContext(12)));
+            System.out.println("    FixedComplex z = " + fixed.realDouble() + ", " + fixed.imaginaryDouble());
+        }
+    }
+}
@@ -0,0 +1,1040 @@
+package mandelbrot;
+
+import java.awt.Graphics;
+import java.awt.event.ComponentEvent;
+import java.awt.event.ComponentListener;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+/**
+ A panel that shows a fractal rendered in the background.
+ <p/>
+ All of the computation happens in jobs run by a {@link RenderService}.
+ Changing what the panel shows submits a new job, which cancels the previous
+ one, and returns immediately. paintComponent only ever blits storedImage,
+ the image of the most recent job, which fills in tile by tile while that
+ job runs.
+ <p/>
+ The order in which pixels are computed is up to a {@link RenderStrategy},
+ which can be changed at runtime. The default is a
+ {@link ProgressiveStrategy}, which shows a coarse image after 1/64 of the
+ work and refines it in place.
+ <p/>
+ Subclasses decide what is drawn by supplying a {@link FrameFactory}, which
+ captures the state of the panel on the event dispatch thread and creates
+ the {@link RenderFrame} and {@link EscapeKernel} on the render thread, and
+ call {@link #invalidateFrame()} whenever either of those would change. The
+ iteration limit is chosen on the render thread too, before the frame is
+ created, so a costly choice such as a pilot pass never blocks the event
+ dispatch thread.
+ <p/>
+ Finished frames are kept in an {@link IterationCache} under the key that
+ {@link FrameFactory#cacheKey(int)} gives them, so a frame that is shown
+ again, such as a view popped off a zoom history, is only recolored. The
+ cache is looked up before the limit is chosen, and a frame found there
+ keeps the limit it was rendered at, so a hit costs no pilot pass.
+ Factories that don't override cacheKey aren't cached.
+ <p/>
+ If the kernel can save its orbits, every pixel is also recorded in an
+ {@link OrbitStore}, which is cleared when the frame is invalidated, and
+ only allocated again if the frame changes size. Changing the iteration
+ limit with {@link #setIterations(int)} then only continues the orbits that
+ hadn't escaped, or, for a lower limit, only re-thresholds the stored
+ escape counts.
+ <p/>
+ If the fractal is symmetric and the frame's pixels line up with its axis,
+ only the unique part of the frame is computed and the rest is mirrored,
+ see {@link Mirror} and {@link #setSymmetric(boolean)}.
+ <p/>
+ @author Joey Bloom
+ */
+@SuppressWarnings("serial")
+public abstract class FractalCanvas extends JPanel
+{
+    private int itr;
+    private RenderStrategy strategy = new ProgressiveStrategy();
+    private boolean symmetric = true;
+    private final RenderService renderService;
+    private final TiledRenderer renderer = new TiledRenderer();
+    private final IterationCache cache = new IterationCache();
+    //only read and written on the event dispatch thread
+    private boolean needsRepaint = true;
+    //for efficiency, store the generated fractal in this variable
+    //as an image so you don't have to regenerate everytime you
+    //drag the zoom box.
+    private BufferedImage storedImage;
+    //how many panel pixels each pixel of storedImage spans
+    private int storedImageScale = 1;
+    //frames are sampled at 1/sampleScale of the panel's resolution
+    private int sampleScale = 1;
+    //the sample scale of the frame in iterations
+    private int finishedScale = 1;
+    //the smooth iteration values of the last frame that finished, so
+    //that changing the palette doesn't recompute the fractal
+    private IterationBuffer iterations;
+    //the kernel that computed iterations
+    private EscapeKernel finishedKernel;
+    private FrameFactory finishedFactory;
+    private PaletteTable paletteTable;
+    //samples of the last finished frame that the next render may reuse
+    private Reuse reuse;
+    //counts the views invalidateFrame was called for, so that jobs can
+    //tell whether the orbits they find belong to their view
+    private long viewGeneration;
+    //the orbits of the view numbered orbitsGeneration, at any iteration
+    //limit; only used by jobs, on the render thread
+    private OrbitStore orbits;
+    private long orbitsGeneration;
+    //the size that the last frame was requested at
+    private int lastWidth;
+    private int lastHeight;
+    //how far the image is dragged during a pan, in pixels
+    private int dragX;
+    private int dragY;
+
+    /**
+     Constructs a FractalCanvas.
+     <p/>
+     @param itr  the iteration limit
+     @param name the name of the background render thread
+     */
+    protected FractalCanvas(int itr, String name)
+    {
+        super();
+        this.itr = itr;
+        paletteTable = new PaletteTable(new HSBPalette(), itr);
+        renderService = new RenderService(this, name);
+        addComponentListener(new ComponentListener()
+        {
+            @Override
+            public void componentResized(ComponentEvent e)
+            {
+                int oldWidth = lastWidth;
+                int oldHeight = lastHeight;
+                lastWidth = getWidth();
+                lastHeight = getHeight();
+                if(oldWidth != lastWidth || oldHeight != lastHeight)
+                {
+                    resized(oldWidth, oldHeight);
+                }
+            }
+
+            @Override
+            public void componentMoved(ComponentEvent e)
+            {
+            }
+
+            @Override
+            public void componentShown(ComponentEvent e)
+            {
+            }
+
+            @Override
+            public void componentHidden(ComponentEvent e)
+            {
+            }
+        });
+    }
+
+    /**
+     Captures what the panel shows, for the next frame. Called on the event
+     dispatch thread whenever a frame is requested; the factory is then used
+     on the render thread, so it must not read the panel's fields.
+     <p/>
+     @param width  the width of the frame in pixels
+     @param height the height of the frame in pixels
+     @return the factory of the next frame
+     */
+    protected abstract FrameFactory createFrameFactory(int width, int height);
+
+    /**
+     Called when the panel changes size. By default the frame is rendered
+     again from scratch; subclasses that can keep the old pixels, for
+     example by keeping the scale and showing more or less of the plane,
+     call {@link #invalidateFrame(int, int, int)} instead.
+     <p/>
+     @param oldWidth  the width before the change, 0 the first time
+     @param oldHeight the height before the change, 0 the first time
+     */
+    protected void resized(int oldWidth, int oldHeight)
+    {
+        invalidateFrame();
+    }
+
+    /**
+     Shifts the image on screen while a pan is being dragged, without
+     rendering anything. Reset it to 0, 0 when the drag ends.
+     <p/>
+     @param dx how far the content has been dragged left, in pixels
+     @param dy how far the content has been dragged up, in pixels
+     */
+    protected void setDragOffset(int dx, int dy)
+    {
+        dragX = dx;
+        dragY = dy;
+        repaint();
+    }
+
+    /**
+     Sets how coarsely the next frames are sampled: at 1/scale of the
+     panel's resolution in each direction, so the frame factory is asked
+     for a smaller frame, whose image is stretched to fill the panel. Call
+     {@link #invalidateFrame()} afterwards to render at the new scale.
+     <p/>
+     @param scale how many panel pixels each sample spans in each
+                  direction, at least 1
+     */
+    protected void setSampleScale(int scale)
+    {
+        if(scale < 1)
+        {
+            throw new IllegalArgumentException("scale must be at least 1: " + scale);
+        }
+        sampleScale = scale;
+    }
+
+    /**
+     Returns how coarsely frames are sampled
+     <p/>
+     @return how many panel pixels each sample spans in each direction
+     */
+    public int getSampleScale()
+    {
+        return sampleScale;
+    }
+
+    /**
+     Called on the event dispatch thread whenever a frame finishes
+     rendering, so subclasses can keep track of how long frames take. Frames
+     shown from the cache or recolored aren't reported.
+     <p/>
+     @param frame the frame that finished
+     @param nanos how long it took to render, from the start of its job
+     */
+    protected void frameFinished(RenderFrame frame, long nanos)
+    {
+    }
+
+    /**
+     Called on the event dispatch thread when a frame starts rendering,
+     once its iteration limit has been chosen and its kernel created, and
+     when a frame is shown from the cache.
+     <p/>
+     @param frame  the frame that started
+     @param kernel the kernel that computes it
+     */
+    protected void frameStarted(RenderFrame frame, EscapeKernel kernel)
+    {
+    }
+
+    /**
+     Chooses the strategy that renders the next frame, just before it is
+     created. By default it is the one last passed to
+     {@link #setRenderStrategy(RenderStrategy)}; subclasses can switch to a
+     faster one while the view is changing. If the strategy isn't reusable,
+     the frame is neither cached nor recorded in the orbit store.
+     <p/>
+     @return the render strategy of the next frame
+     */
+    protected RenderStrategy chooseStrategy()
+    {
+        return strategy;
+    }
+
+    /**
+     Marks the fractal as out of date and starts rendering it again in the
+     background. Returns immediately.
+     */
+    protected void invalidateFrame()
+    {
+        reuse = null;
+        viewGeneration++;
+        needsRepaint = true;
+        requestRender();
+    }
+
+    /**
+     Like {@link #invalidateFrame()}, but for a frame that shares samples with
+     the one on screen: the new pixel (x, y), where x and y are multiples of
+     zoom, is exactly the old pixel (originX + x / zoom, originY + y / zoom).
+     Those pixels are copied from the last finished frame instead of being
+     computed again, and the old image is shown scaled up until the new one
+     replaces it. If the frame on screen isn't finished, nothing is reused.
+     <p/>
+     If the new frame gets a different iteration limit, old pixels that
+     escaped below the new limit are still copied, which assumes smooth
+     values no lower than escape counts, as the Mandelbrot kernels give;
+     pixels that were inside are only copied if the limit didn't go up.
+     <p/>
+     @param originX the old column at the left edge of the new frame
+     @param originY the old row at the top edge of the new frame
+     @param zoom    how many new pixels span one old pixel, at least 1
+     */
+    protected void invalidateFrame(int originX, int originY, int zoom)
+    {
+        reuse = needsRepaint || iterations == null ? null
+            : new Reuse(iterations, finishedKernel.getFrame().getIterations(), originX, originY, zoom);
+        viewGeneration++;
+        needsRepaint = true;
+        requestRender();
+    }
+
+    //submits whatever job brings storedImage up to date
+    private void requestRender()
+    {
+        if(getWidth() <= 0 || getHeight() <= 0)
+        {
+            //componentResized will ask again once there is something to draw on
+            return;
+        }
+        if(paletteTable.getIterations() != itr)
+        {
+            paletteTable = newTable(paletteTable.getPalette(), itr, paletteTable.getOffset(),
+                paletteTable.getSpeed(), paletteTable.isEqualizing());
+        }
+        if(needsRepaint || iterations == null)
+        {
+            int width = (getWidth() + sampleScale - 1) / sampleScale;
+            int height = (getHeight() + sampleScale - 1) / sampleScale;
+            RenderStrategy chosen = chooseStrategy();
+            //outlines don't hold escape times to reuse, record or mirror
+            renderService.submit(new RenderJob(createFrameFactory(width, height), itr, chosen, paletteTable,
+                storedImage, storedImageScale,
+                chosen.isReusable() && finishedScale == sampleScale ? reuse : null,
+                chosen.isReusable() ? viewGeneration : -1, sampleScale, symmetric && chosen.isReusable()));
+            reuse = null;
+        }
+        else
+        {
+            renderService.submit(new RecolorJob(finishedKernel, finishedFactory, iterations, paletteTable,
+                finishedScale));
+        }
+    }
+
+    /**
+     Paints the most recent image of the fractal, which may still be
+     filling in.
+     <p/>
+     @param g
+     */
+    @Override
+    public void paintComponent(Graphics g)
+    {
+        if(dragX != 0 || dragY != 0)
+        {
+            //clear the strips that the dragged image uncovers
+            super.paintComponent(g);
+        }
+        if(storedImage != null)
+        {
+            g.drawImage(storedImage, -dragX, -dragY,
+                storedImage.getWidth() * storedImageScale, storedImage.getHeight() * storedImageScale, null);
+        }
+    }
+
+    /**
+     Changes the palette used to color the fractal. If the fractal has
+     finished rendering, it is recolored from the stored iteration values,
+     so nothing is recomputed.
+     <p/>
+     @param palette the new palette
+     */
+    public void setPalette(Palette palette)
+    {
+        paletteTable = newTable(palette, itr, paletteTable.getOffset(),
+            paletteTable.getSpeed(), paletteTable.isEqualizing());
+        requestRender();
+    }
+
+    /**
+     Rotates the colors of the palette. Like changing the palette, this
+     only recolors a finished fractal.
+     <p/>
+     @param offset added to the position of every pixel in the palette
+     @see PaletteTable
+     */
+    public void setColorOffset(float offset)
+    {
+        paletteTable = newTable(paletteTable.getPalette(), itr, offset,
+            paletteTable.getSpeed(), paletteTable.isEqualizing());
+        requestRender();
+    }
+
+    /**
+     Returns what is added to the position of every pixel in the palette
+     @return the color offset
+     */
+    public float getColorOffset()
+    {
+        return paletteTable.getOffset();
+    }
+
+    /**
+     Changes how fast the colors cycle. Like changing the palette, this
+     only recolors a finished fractal.
+     <p/>
+     @param speed how many times faster than usual the colors cycle
+     @see PaletteTable
+     */
+    public void setColorSpeed(float speed)
+    {
+        paletteTable = newTable(paletteTable.getPalette(), itr, paletteTable.getOffset(),
+            speed, paletteTable.isEqualizing());
+        requestRender();
+    }
+
+    /**
+     Returns how many times faster than usual the colors cycle
+     @return the color speed
+     */
+    public float getColorSpeed()
+    {
+        return paletteTable.getSpeed();
+    }
+
+    /**
+     Turns histogram equalization, which spreads the colors evenly over the
+     pixels of the frame, on or off. Like changing the palette, this only
+     recolors a finished fractal; while a frame renders it is colored
+     without equalization.
+     <p/>
+     @param equalize true to equalize the colors
+     @see PaletteTable
+     */
+    public void setHistogramEqualization(boolean equalize)
+    {
+        paletteTable = newTable(paletteTable.getPalette(), itr, paletteTable.getOffset(),
+            paletteTable.getSpeed(), equalize);
+        requestRender();
+    }
+
+    /**
+     Returns whether the colors are spread evenly over the pixels
+     @return true if histogram equalization is on
+     */
+    public boolean isHistogramEqualization()
+    {
+        return paletteTable.isEqualizing();
+    }
+
+    private static PaletteTable newTable(Palette palette, int itr, float offset, float speed, boolean equalize)
+    {
+        return new PaletteTable(palette, itr, 0, offset, speed, equalize);
+    }
+
+    /**
+     Returns the palette used to color the fractal
+     <p/>
+     @return the palette
+     */
+    public Palette getPalette()
+    {
+        return paletteTable.getPalette();
+    }
+
+    /**
+     Returns the palette table that colors the fractal
+     <p/>
+     @return the palette table
+     */
+    public PaletteTable getPaletteTable()
+    {
+        return paletteTable;
+    }
+
+    /**
+     Changes the strategy that decides which pixels are computed and in what
+     order, and renders the fractal again with it.
+     <p/>
+     @param strategy the new strategy
+     */
+    public void setRenderStrategy(RenderStrategy strategy)
+    {
+        this.strategy = strategy;
+        invalidateFrame();
+    }
+
+    /**
+     Returns the strategy that decides which pixels are computed
+     <p/>
+     @return the render strategy
+     */
+    public RenderStrategy getRenderStrategy()
+    {
+        return strategy;
+    }
+
+    /**
+     Sets whether symmetric frames are rendered by computing only their
+     unique part and mirroring the rest, and renders the fractal again.
+     Mirrored pixels sample the same points as the pixels they are copied
+     from, up to rounding.
+     <p/>
+     @param symmetric true to mirror symmetric frames
+     */
+    public void setSymmetric(boolean symmetric)
+    {
+        this.symmetric = symmetric;
+        invalidateFrame();
+    }
+
+    /**
+     Returns whether symmetric frames are mirrored
+     <p/>
+     @return true if symmetric frames are mirrored
+     */
+    public boolean isSymmetric()
+    {
+        return symmetric;
+    }
+
+    /**
+     Returns the smooth iteration values of the last frame that finished
+     rendering. Each frame gets a new buffer, so the buffer returned never
+     changes afterwards.
+     <p/>
+     @return the iteration buffer, or null if no frame has finished
+     */
+    public IterationBuffer getFinishedIterations()
+    {
+        return iterations;
+    }
+
+    /**
+     Returns the kernel that computed the last frame that finished
+     rendering, for example to read its statistics.
+     <p/>
+     @return the kernel, or null if no frame has finished
+     */
+    public EscapeKernel getFinishedKernel()
+    {
+        return finishedKernel;
+    }
+
+    /**
+     Returns the factory that created the last frame that finished
+     rendering. Its kernels compute the same values as the finished kernel
+     but keep their own statistics, so a brute-force render with
+     {@link RenderDiff} on a new one doesn't add to the statistics of the
+     frame on screen.
+     <p/>
+     @return the factory, or null if no frame has finished
+     */
+    public FrameFactory getFinishedFactory()
+    {
+        return finishedFactory;
+    }
+
+    /**
+     Returns the cache of finished frames, for example to change its memory
+     budget or read its hit rate
+     <p/>
+     @return the iteration cache
+     */
+    public IterationCache getIterationCache()
+    {
+        return cache;
+    }
+
+    /**
+     Returns the iteration limit
+     <p/>
+     @return the maximum number of iterations per pixel
+     */
+    public int getIterations()
+    {
+        return itr;
+    }
+
+    /**
+     Changes the iteration limit and renders the fractal again in the
+     background. Returns immediately.
+     <p/>
+     If the kernel saves its orbits, nothing already computed for this view
+     is computed again: a higher limit continues the orbits that hadn't
+     escaped from where they stopped, and a lower one only re-thresholds
+     the escape counts.
+     <p/>
+     @param itr the maximum number of iterations per pixel <br/>
+                precondition: <code>itr &gt; 0</code>
+     */
+    public void setIterations(int itr)
+    {
+        if(itr <= 0)
+        {
+            throw new IllegalArgumentException("itr must be positive: " + itr);
+        }
+        if(itr == this.itr)
+        {
+            return;
+        }
+        this.itr = itr;
+        invalidateIterations();
+    }
+
+    /**
+     Renders the frame again at the limit that
+     {@link FrameFactory#chooseIterations(int, RenderService.Ticket)} gives, keeping what was already
+     computed for the current view, the way {@link #setIterations(int)}
+     does. Returns immediately.
+     */
+    protected void invalidateIterations()
+    {
+        reuse = null;
+        needsRepaint = true;
+        requestRender();
+    }
+
+    //runs on the event dispatch thread once a job has chosen the limit of
+    //its frame and created its kernel
+    private void started(final RenderService.Ticket ticket, final EscapeKernel kernel, final PaletteTable table)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if(ticket.isCancelled())
+                {
+                    return;
+                }
+                itr = kernel.getFrame().getIterations();
+                paletteTable = table;
+                frameStarted(kernel.getFrame(), kernel);
+            }
+        });
+    }
+
+    //runs on the event dispatch thread once a job has something to show;
+    //each pixel of image spans scale pixels of the panel
+    private void publish(final RenderService.Ticket ticket, final BufferedImage image, int scale,
+        final IterationBuffer finished, final EscapeKernel kernel, FrameFactory factory)
+    {
+        publish(ticket, image, scale, finished, kernel, factory, null, null, 0);
+    }
+
+    //also stores the compressed finished frame in the cache under key, and
+    //reports how long a finished frame took to render, if renderNanos > 0
+    private void publish(final RenderService.Ticket ticket, final BufferedImage image, final int scale,
+        final IterationBuffer finished, final EscapeKernel kernel, final FrameFactory factory,
+        final Object key, final IterationCache.CachedFrame compressed, final long renderNanos)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if(key != null)
+                {
+                    //cache it even if the job was cancelled, since it finished
+                    cache.put(key, compressed);
+                }
+                if(ticket.isCancelled())
+                {
+                    return;
+                }
+                storedImage = image;
+                storedImageScale = scale;
+                if(finished != null)
+                {
+                    iterations = finished;
+                    finishedKernel = kernel;
+                    finishedFactory = factory;
+                    finishedScale = scale;
+                    needsRepaint = false;
+                    if(renderNanos > 0)
+                    {
+                        frameFinished(kernel.getFrame(), renderNanos);
+                    }
+                }
+                repaint();
+            }
+        });
+    }
+
+    private static int[] pixelsOf(BufferedImage image)
+    {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    //colors every pixel of a finished buffer in parallel
+    private BufferedImage colorize(IterationBuffer buffer, PaletteTable table)
+    {
+        BufferedImage image = new BufferedImage(buffer.getWidth(), buffer.getHeight(), BufferedImage.TYPE_INT_RGB);
+        paintKnown(buffer, pixelsOf(image), table);
+        return image;
+    }
+
+    //colors every pixel of a buffer that isn't UNKNOWN, in parallel
+    private void paintKnown(IterationBuffer buffer, final int[] pixels, final PaletteTable table)
+    {
+        final int width = buffer.getWidth();
+        final float[] smooth = buffer.getSmooth();
+        renderer.render(width, buffer.getHeight(), new TiledRenderer.TileTask()
+        {
+            @Override
+            public void renderTile(int x0, int y0, int x1, int y1)
+            {
+                for(int y = y0; y < y1; y++)
+                {
+                    for(int i = y * width + x0; i < y * width + x1; i++)
+                    {
+                        if(!IterationBuffer.isUnknown(smooth[i]))
+                        {
+                            pixels[i] = table.color(smooth[i]);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    //chooses the limit of a frame, then shows it from the cache, or
+    //computes and colors every pixel of it
+    private class RenderJob implements RenderService.Job
+    {
+        private final FrameFactory factory;
+        private final int itr;
+        private final RenderStrategy strategy;
+        private final PaletteTable table;
+        private final BufferedImage previous;
+        private final int previousScale;
+        private final Reuse reuse;
+        //the view whose orbits are recorded, or -1 to record none
+        private final long generation;
+        private final int scale;
+        private final boolean symmetric;
+
+        RenderJob(FrameFactory factory, int itr, RenderStrategy strategy, PaletteTable table,
+            BufferedImage previous, int previousScale, Reuse reuse, long generation, int scale,
+            boolean symmetric)
+        {
+            this.factory = factory;
+            this.itr = itr;
+            this.symmetric = symmetric;
+            this.previousScale = previousScale;
+            this.generation = generation;
+            this.scale = scale;
+            this.strategy = strategy;
+            this.table = table;
+            this.previous = previous;
+            this.reuse = reuse;
+        }
+
+        @Override
+        public void run(final RenderService.Ticket ticket)
+        {
+            long start = System.nanoTime();
+            //a cached frame comes with its limit, so it isn't chosen again
+            Object key = strategy.isReusable() ? factory.cacheKey(itr) : null;
+            if(key != null)
+            {
+                //the strategy decides which values are inferred rather
+                //than sampled, so frames of different strategies differ
+                key = Arrays.asList(key, strategy);
+            }
+            IterationCache.CachedFrame cached = key == null ? null : cache.get(key);
+            int chosen = cached != null ? cached.getIterations() : factory.chooseIterations(itr, ticket);
+            if(ticket.isCancelled())
+            {
+                return;
+            }
+            RenderFrame frame = factory.createFrame(chosen);
+            EscapeKernel kernel = factory.createKernel(frame);
+            PaletteTable frameTable = table.getIterations() == chosen ? table
+                : newTable(table.getPalette(), chosen, table.getOffset(), table.getSpeed(), table.isEqualizing());
+            started(ticket, kernel, frameTable);
+            if(cached != null)
+            {
+                new CachedJob(kernel, factory, cached.getData(), frameTable, scale).run(ticket);
+                return;
+            }
+            render(ticket, kernel, key, frameTable, reuse, orbitsFor(kernel), start);
+        }
+
+        //the store that the orbits of the kernel's frame are recorded in
+        private OrbitStore orbitsFor(EscapeKernel kernel)
+        {
+            int stateSize = kernel.getOrbitStateSize();
+            if(generation < 0 || stateSize == 0)
+            {
+                return null;
+            }
+            int width = kernel.getFrame().getWidth();
+            int height = kernel.getFrame().getHeight();
+            if(orbits == null || !orbits.fits(width, height, stateSize))
+            {
+                orbits = new OrbitStore(width, height, stateSize);
+            }
+            else if(orbitsGeneration != generation)
+            {
+                //a new view of the same size keeps the arrays
+                orbits.reset();
+            }
+            orbitsGeneration = generation;
+            return orbits;
+        }
+
+        private void render(final RenderService.Ticket ticket, EscapeKernel kernel, Object key,
+            PaletteTable table, Reuse reuse, OrbitStore orbits, long start)
+        {
+            final int width = kernel.getFrame().getWidth();
+            final int height = kernel.getFrame().getHeight();
+            final IterationBuffer buffer = new IterationBuffer(width, height);
+            final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            if(previous != null)
+            {
+                //keep showing the old frame until each region is replaced
+                Graphics g = image.getGraphics();
+                if(reuse == null)
+                {
+                    //at the size it covers on the panel
+                    g.drawImage(previous, 0, 0, previous.getWidth() * previousScale / scale,
+                        previous.getHeight() * previousScale / scale, null);
+                }
+                else
+                {
+                    //the part of the old frame that the new one shows,
+                    //scaled up by zoom
+                    g.drawImage(previous, 0, 0, width, height,
+                        reuse.originX, reuse.originY,
+                        reuse.originX + width / reuse.zoom, reuse.originY + height / reuse.zoom, null);
+                }
+                g.dispose();
+            }
+            final int itr = kernel.getFrame().getIterations();
+            if(orbits != null && orbits.fill(buffer, itr))
+            {
+                //whatever another limit already decided
+                paintKnown(buffer, pixelsOf(image), table);
+            }
+            if(reuse != null)
+            {
+                reuse.copyInto(buffer, itr, pixelsOf(image), table);
+            }
+            publish(ticket, image, scale, null, null, null);
+
+            kernel.setOrbits(orbits);
+            try
+            {
+                Mirror mirror = symmetric ? Mirror.of(kernel) : null;
+                FramePainter painter = new FramePainter(buffer, pixelsOf(image), table, FractalCanvas.this);
+                if(mirror == null)
+                {
+                    strategy.render(kernel, buffer, painter, ticket);
+                }
+                else
+                {
+                    IterationBuffer band = mirror.band(buffer);
+                    strategy.render(mirror.band(kernel), band,
+                        mirror.painter(band, pixelsOf(image), table, FractalCanvas.this), ticket);
+                    if(!ticket.isCancelled())
+                    {
+                        mirror.finish(band, buffer, kernel, painter);
+                    }
+                }
+            }
+            finally
+            {
+                kernel.setOrbits(null);
+            }
+            if(!ticket.isCancelled())
+            {
+                if(orbits != null)
+                {
+                    orbits.recordInferred(buffer, itr);
+                }
+                PaletteTable finalTable = table.forFrame(buffer);
+                if(finalTable != table)
+                {
+                    //equalize now that the whole histogram is known
+                    paintKnown(buffer, pixelsOf(image), finalTable);
+                }
+                publish(ticket, image, scale, buffer, kernel, factory,
+                    key, key == null ? null : new IterationCache.CachedFrame(IterationCache.compress(buffer), itr),
+                    System.nanoTime() - start);
+            }
+        }
+    }
+
+    //shows a frame from the cache
+    private class CachedJob implements RenderService.Job
+    {
+        private final EscapeKernel kernel;
+        private final FrameFactory factory;
+        private final byte[] compressed;
+        private final PaletteTable table;
+        private final int scale;
+
+        CachedJob(EscapeKernel kernel, FrameFactory factory, byte[] compressed, PaletteTable table, int scale)
+        {
+            this.scale = scale;
+            this.kernel = kernel;
+            this.factory = factory;
+            this.compressed = compressed;
+            this.table = table;
+        }
+
+        @Override
+        public void run(final RenderService.Ticket ticket)
+        {
+            IterationBuffer buffer = IterationCache.decompress(compressed,
+                kernel.getFrame().getWidth(), kernel.getFrame().getHeight());
+            BufferedImage image = colorize(buffer, table.forFrame(buffer));
+            if(!ticket.isCancelled())
+            {
+                publish(ticket, image, scale, buffer, kernel, factory);
+            }
+        }
+    }
+
+    //samples of a finished frame that line up with a new one
+    private static class Reuse
+    {
+        final IterationBuffer old;
+        final int itr;
+        final int originX;
+        final int originY;
+        final int zoom;
+
+        Reuse(IterationBuffer old, int itr, int originX, int originY, int zoom)
+        {
+            this.old = old;
+            this.itr = itr;
+            this.originX = originX;
+            this.originY = originY;
+            this.zoom = zoom;
+        }
+
+        //whether an old value is also the value at limit newItr: one that
+        //escaped below newItr escapes the same way, and one that was inside
+        //stays inside at a limit no higher. The rest are sampled again
+        private boolean holds(float value, int newItr)
+        {
+            if(value == IterationBuffer.INSIDE)
+            {
+                return newItr <= itr;
+            }
+            return value < newItr;
+        }
+
+        //copies and colors every pixel of buffer that lines up with a
+        //pixel of the old frame whose value still holds at limit newItr
+        void copyInto(IterationBuffer buffer, int newItr, int[] pixels, PaletteTable table)
+        {
+            int width = buffer.getWidth();
+            float[] smooth = buffer.getSmooth();
+            float[] oldSmooth = old.getSmooth();
+            for(int y = 0; y < buffer.getHeight(); y += zoom)
+            {
+                int oldY = originY + y / zoom;
+                if(oldY < 0 || oldY >= old.getHeight())
+                {
+                    continue;
+                }
+                for(int x = 0; x < width; x += zoom)
+                {
+                    int oldX = originX + x / zoom;
+                    if(oldX >= 0 && oldX < old.getWidth())
+                    {
+                        float value = oldSmooth[oldY * old.getWidth() + oldX];
+                        if(holds(value, newItr))
+                        {
+                            smooth[y * width + x] = value;
+                            pixels[y * width + x] = table.color(value);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    //colors a finished frame with a different palette
+    private class RecolorJob implements RenderService.Job
+    {
+        private final EscapeKernel kernel;
+        private final FrameFactory factory;
+        private final IterationBuffer buffer;
+        private final PaletteTable table;
+        private final int scale;
+
+        RecolorJob(EscapeKernel kernel, FrameFactory factory, IterationBuffer buffer, PaletteTable table,
+            int scale)
+        {
+            this.scale = scale;
+            this.kernel = kernel;
+            this.factory = factory;
+            this.buffer = buffer;
+            this.table = table;
+        }
+
+        @Override
+        public void run(final RenderService.Ticket ticket)
+        {
+            BufferedImage image = colorize(buffer, table.forFrame(buffer));
+            if(!ticket.isCancelled())
+            {
+                publish(ticket, image, scale, buffer, kernel, factory);
+            }
+        }
+    }
+
+    /**
+     Creates the frame and kernel of one render, at one size, from the
+     state the panel was in when the render was requested. Used on the
+     render thread.
+     */
+    protected abstract static class FrameFactory
+    {
+        /**
+         Chooses the iteration limit of the frame, before it is created. By
+         default the limit is the one last passed to
+         {@link FractalCanvas#setIterations(int)}; factories can tune it to
+         what they show.
+         <p/>
+         @param itr    the limit last passed to setIterations
+         @param ticket the ticket of the render, which a slow choice should
+                       poll to stop early
+         @return the maximum number of iterations per pixel
+         */
+        public int chooseIterations(int itr, RenderService.Ticket ticket)
+        {
+            return itr;
+        }
+
+        /**
+         Describes the frame to render.
+         <p/>
+         @param itr the iteration limit returned by chooseIterations
+         @return the frame
+         */
+        public abstract RenderFrame createFrame(int itr);
+
+        /**
+         Creates the kernel that computes the pixels of a frame.
+         <p/>
+         @param frame the frame returned by createFrame
+         @return the kernel
+         */
+        public abstract EscapeKernel createKernel(RenderFrame frame);
+
+        /**
+         Returns the key that the frame is cached under, before its limit is
+         chosen. It must be equal for two factories exactly when their
+         frames would render the same iteration values with the same
+         strategy, so it includes itr unless chooseIterations ignores it,
+         and every setting of the kernel; the canvas adds the strategy
+         itself. By default frames aren't cached.
+         <p/>
+         @param itr the limit that will be passed to chooseIterations
+         @return the key, or null to not cache the frame
+         */
+        public Object cacheKey(int itr)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package mandelbrot;
+
+import java.awt.Component;
+
+/**
+ Colors regions of an IterationBuffer into the pixels of an image as a
+ {@link RenderStrategy} finishes them, and repaints the component that shows
+ the image.
+ <p/>
+ Different threads may paint different regions at the same time.
+ <p/>
+ @author Joey Bloom
+ */
+public class FramePainter
+{
+    private final IterationBuffer buffer;
+    private final int[] pixels;
+    private final PaletteTable table;
+    private final Component component;
+    private final int width;
+    //the index in pixels of the buffer's first pixel
+    private final int offset;
+
+    /**
+     Constructs a FramePainter.
+     <p/>
+     @param buffer    the values to color
+     @param pixels    the packed RGB pixels of an image the same size as the
+                      buffer
+     @param table     maps values to colors
+     @param component shows the image
+     */
+    public FramePainter(IterationBuffer buffer, int[] pixels, PaletteTable table, Component component)
+    {
+        this(buffer, pixels, 0, table, component);
+    }
+
+    /**
+     Constructs a FramePainter for a buffer that covers the rows of a
+     larger image starting at offset.
+     <p/>
+     @param buffer    the values to color
+     @param pixels    the packed RGB pixels of an image as wide as the buffer
+     @param offset    the index in pixels of the buffer's first pixel
+     @param table     maps values to colors
+     @param component shows the image
+     */
+    public FramePainter(IterationBuffer buffer, int[] pixels, int offset, PaletteTable table, Component component)
+    {
+        this.offset = offset;
+        this.buffer = buffer;
+        this.pixels = pixels;
+        this.table = table;
+        this.component = component;
+        width = buffer.getWidth();
+    }
+
+    /**
+     Colors the rectangle [x0,x1) x [y0,y1).
+     <p/>
+     @param x0 the leftmost column, inclusive
+     @param y0 the topmost row, inclusive
+     @param x1 the rightmost column, exclusive
+     @param y1 the bottommost row, exclusive
+     */
+    public void paint(int x0, int y0, int x1, int y1)
+    {
+        float[] smooth = buffer.getSmooth();
+        for(int y = y0; y < y1; y++)
+        {
+            for(int i = y * width + x0; i < y * width + x1; i++)
+            {
+                pixels[offset + i] = table.color(smooth[i]);
+            }
+        }
+    }
+
+    /**
+     Colors the rectangle [x0,x1) x [y0,y1) at reduced resolution: the value
+     at every step-th column of every step-th row is painted as a step x step
+     block. Pixels of a block that already hold a value keep their own color,
+     since they were painted when that value was filled in.
+     <p/>
+     @param x0   the leftmost column, inclusive, a multiple of step
+     @param y0   the topmost row, inclusive, a multiple of step
+     @param x1   the rightmost column, exclusive
+     @param y1   the bottommost row, exclusive
+     @param step the distance between the values that are painted
+     */
+    public void paintBlocks(int x0, int y0, int x1, int y1, int step)
+    {
+        if(step == 1)
+        {
+            paint(x0, y0, x1, y1);
+            return;
+        }
+        float[] smooth = buffer.getSmooth();
+        for(int y = y0; y < y1; y += step)
+        {
+            for(int x = x0; x < x1; x += step)
+            {
+                int color = table.color(smooth[y * width + x]);
+                int blockBottom = Math.min(y + step, y1);
+                int blockRight = Math.min(x + step, x1);
+                pixels[offset + y * width + x] = color;
+                for(int by = y; by < blockBottom; by++)
+                {
+                    for(int i = by * width + x; i < by * width + blockRight; i++)
+                    {
+                        if(IterationBuffer.isUnknown(smooth[i]))
+                        {
+                            pixels[offset + i] = color;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     Repaints the component right away, so that a finished pass is shown
+     even if progress was reported recently.
+     */
+    public void flush()
+    {
+        component.repaint();
+    }
+}
@@ -0,0 +1,41 @@
+package mandelbrot;
+
+/**
+ A Palette that ramps from black to white and back again a fixed number of
+ times over the iteration range.
+ <p/>
+ @author Joey Bloom
+ */
+public class GrayscalePalette implements Palette
+{
+    private final float cycles;
+
+    /**
+     Constructs a GrayscalePalette that repeats its ramp ten times, the same
+     number of cycles as the default HSBPalette.
+     */
+    public GrayscalePalette()
+    {
+        this(10f);
+    }
+
+    /**
+     Constructs a GrayscalePalette.
+     <p/>
+     @param cycles how many black-white-black ramps fit in the iteration range
+     */
+    public GrayscalePalette(float cycles)
+    {
+        this.cycles = cycles;
+    }
+
+    @Override
+    public int color(float fraction)
+    {
+        float t = fraction * cycles;
+        t -= (float) Math.floor(t);
+        //triangle wave so that the ramp has no seam
+        int level = (int) (255 * (t < .5f ? 2 * t : 2 - 2 * t));
+        return (level << 16) | (level << 8) | level;
+    }
+}
@@ -0,0 +1,50 @@
+package mandelbrot;
+
+import java.awt.Color;
+
+/**
+ A Palette that cycles through hues at a fixed saturation and brightness.
+ <p/>
+ The default instance reproduces the coloring that the panels have always
+ used: <code>hue = .6 + 10 * fraction</code>.
+ <p/>
+ @author Joey Bloom
+ */
+public class HSBPalette implements Palette
+{
+    private final float hueOffset;
+    private final float hueScale;
+    private final float saturation;
+    private final float brightness;
+
+    /**
+     Constructs the default HSBPalette.
+     */
+    public HSBPalette()
+    {
+        this(.6f, 10f, .6f, 1f);
+    }
+
+    /**
+     Constructs an HSBPalette.
+     <p/>
+     @param hueOffset  the hue of a pixel that escapes immediately
+     @param hueScale   how many times the hue wheel is traversed between
+                       fraction 0 and fraction 1
+     @param saturation the saturation of every color
+     @param brightness the brightness of every color
+     */
+    public HSBPalette(float hueOffset, float hueScale, float saturation, float brightness)
+    {
+        this.hueOffset = hueOffset;
+        this.hueScale = hueScale;
+        this.saturation = saturation;
+        this.brightness = brightness;
+    }
+
+    @Override
+    public int color(float fraction)
+    {
+        return Color.HSBtoRGB(hueOffset + hueScale * fraction, saturation, brightness);
+    }
+}
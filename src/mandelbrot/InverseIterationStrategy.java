@@ -0,0 +1,192 @@
+package mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ Draws the outline of a Julia set by inverse iteration instead of sampling
+ escape times.
+ <p/>
+ The Julia set of z^2 + c is invariant under the inverse map
+ z -> +-sqrt(z - c), which is contracting towards the set, so the preimages
+ of any point of the set trace the rest of it. Starting from the repelling
+ fixed point, which is always in the set, both preimages of every point are
+ followed depth first. Plain inverse iteration visits the set very unevenly,
+ so this is the modified algorithm (MIIM): every grid cell counts its hits,
+ and a point whose cell has already been hit MAX_HITS times isn't followed
+ any further. The work is then proportional to the number of cells on the
+ boundary rather than to the area of the frame, which makes this much faster
+ than escape time while c tracks the mouse.
+ <p/>
+ Only the boundary is drawn. Pixels on it get the depth at which they were
+ first hit as their smooth value, and every other pixel is drawn as inside,
+ so the buffer doesn't hold escape times and is never cached or reused, see
+ {@link #isReusable()}. Kernels other than {@link JuliaKernel} are rendered
+ with the fallback strategy instead.
+ <p/>
+ @author Joey Bloom
+ */
+public class InverseIterationStrategy extends RenderStrategy
+{
+    //cells hit this many times aren't followed any further
+    private static final int MAX_HITS = 4;
+    //no branch is followed deeper than this
+    private static final int MAX_DEPTH = 4096;
+    //the culling grid is coarsened until it has at most this many cells
+    private static final int MAX_CELLS = 1 << 24;
+    //the ticket is checked after this many points
+    private static final int CANCEL_CHECK = 1 << 12;
+
+    private final RenderStrategy fallback;
+
+    /**
+     Constructs an InverseIterationStrategy that renders non-Julia kernels
+     progressively.
+     */
+    public InverseIterationStrategy()
+    {
+        this(new ProgressiveStrategy());
+    }
+
+    /**
+     Constructs an InverseIterationStrategy.
+     <p/>
+     @param fallback renders the kernels that aren't Julia kernels
+     */
+    public InverseIterationStrategy(RenderStrategy fallback)
+    {
+        super("Inverse iteration outline");
+        this.fallback = fallback;
+    }
+
+    @Override
+    public void render(EscapeKernel kernel, IterationBuffer buffer,
+        FramePainter painter, RenderService.Ticket ticket)
+    {
+        if(!(kernel instanceof JuliaKernel))
+        {
+            fallback.render(kernel, buffer, painter, ticket);
+            return;
+        }
+        JuliaKernel julia = (JuliaKernel) kernel;
+        double cA = julia.getCA();
+        double cB = julia.getCB();
+        RenderFrame frame = kernel.getFrame();
+        int width = buffer.getWidth();
+        int height = buffer.getHeight();
+        float[] smooth = buffer.getSmooth();
+        double left = frame.getLeft();
+        double top = frame.getTop();
+        double hInc = frame.getHorizontalIncrement();
+        double vInc = frame.getVerticalIncrement();
+
+        //the set lies within the escape radius, so the culling grid only has
+        //to cover that square, with cells the size of a pixel where possible
+        double radius = (1 + Math.sqrt(1 + 4 * Math.hypot(cA, cB))) / 2;
+        double cellWidth = Math.abs(hInc);
+        double cellHeight = Math.abs(vInc);
+        while((2 * radius / cellWidth + 1) * (2 * radius / cellHeight + 1) > MAX_CELLS)
+        {
+            cellWidth *= 2;
+            cellHeight *= 2;
+        }
+        int columns = (int) (2 * radius / cellWidth) + 1;
+        int rows = (int) (2 * radius / cellHeight) + 1;
+        byte[] hits = new byte[columns * rows];
+
+        //the repelling fixed point, (1 + sqrt(1 - 4c)) / 2
+        double rootA = sqrtReal(1 - 4 * cA, -4 * cB);
+        double rootB = sqrtImaginary(1 - 4 * cA, -4 * cB);
+        double[] stackA = new double[256];
+        double[] stackB = new double[256];
+        int[] depths = new int[256];
+        stackA[0] = (1 + rootA) / 2;
+        stackB[0] = rootB / 2;
+        int size = 1;
+        int visited = 0;
+        while(size > 0)
+        {
+            if(++visited % CANCEL_CHECK == 0 && ticket.isCancelled())
+            {
+                return;
+            }
+            size--;
+            double zA = stackA[size];
+            double zB = stackB[size];
+            int depth = depths[size];
+
+            int column = (int) Math.floor((zA + radius) / cellWidth);
+            int row = (int) Math.floor((zB + radius) / cellHeight);
+            if(column < 0 || column >= columns || row < 0 || row >= rows)
+            {
+                continue;
+            }
+            int cell = row * columns + column;
+            if(hits[cell] >= MAX_HITS)
+            {
+                continue;
+            }
+            hits[cell]++;
+
+            int x = (int) Math.floor((zA - left) / hInc + .5);
+            int y = (int) Math.floor((zB - top) / vInc + .5);
+            if(x >= 0 && x < width && y >= 0 && y < height
+                && IterationBuffer.isUnknown(smooth[y * width + x]))
+            {
+                smooth[y * width + x] = depth;
+            }
+
+            if(depth < MAX_DEPTH)
+            {
+                if(size + 2 > stackA.length)
+                {
+                    stackA = Arrays.copyOf(stackA, stackA.length * 2);
+                    stackB = Arrays.copyOf(stackB, stackB.length * 2);
+                    depths = Arrays.copyOf(depths, depths.length * 2);
+                }
+                //the two preimages, +-sqrt(z - c)
+                double preA = sqrtReal(zA - cA, zB - cB);
+                double preB = sqrtImaginary(zA - cA, zB - cB);
+                stackA[size] = preA;
+                stackB[size] = preB;
+                depths[size++] = depth + 1;
+                stackA[size] = -preA;
+                stackB[size] = -preB;
+                depths[size++] = depth + 1;
+            }
+        }
+
+        for(int i = 0; i < smooth.length; i++)
+        {
+            if(IterationBuffer.isUnknown(smooth[i]))
+            {
+                smooth[i] = IterationBuffer.INSIDE;
+            }
+        }
+        painter.paint(0, 0, width, height);
+        ticket.progress();
+        painter.flush();
+    }
+
+    //the real part of the principal square root of a + bi
+    private static double sqrtReal(double a, double b)
+    {
+        return Math.sqrt(Math.max(0, (Math.hypot(a, b) + a) / 2));
+    }
+
+    //the imaginary part of the principal square root of a + bi
+    private static double sqrtImaginary(double a, double b)
+    {
+        return Math.copySign(Math.sqrt(Math.max(0, (Math.hypot(a, b) - a) / 2)), b);
+    }
+
+    /**
+     Returns false: the buffer holds an outline, not escape times.
+     <p/>
+     @return false
+     */
+    @Override
+    public boolean isReusable()
+    {
+        return false;
+    }
+}
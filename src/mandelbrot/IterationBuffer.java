@@ -0,0 +1,86 @@
+package mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ Holds the smooth iteration value of every pixel in a frame, so that the
+ frame can be recolored without iterating again.
+ <p/>
+ Values are stored row by row: the pixel (x, y) is at index
+ <code>y * width + x</code>. A pixel that never escaped holds
+ {@link #INSIDE}, and a pixel that hasn't been computed yet holds
+ {@link #UNKNOWN}.
+ <p/>
+ @author Joey Bloom
+ */
+public class IterationBuffer
+{
+    /**
+     The value stored for a pixel that did not escape within the iteration
+     limit.
+     */
+    public static final float INSIDE = Float.NEGATIVE_INFINITY;
+
+    /**
+     The value stored for a pixel that hasn't been computed yet. Since this
+     is NaN, test for it with {@link #isUnknown(float)}, not ==.
+     */
+    public static final float UNKNOWN = Float.NaN;
+
+    private final int width;
+    private final int height;
+    private final float[] smooth;
+
+    /**
+     Constructs an IterationBuffer in which every pixel is UNKNOWN.
+     <p/>
+     @param width  the width of the frame in pixels
+     @param height the height of the frame in pixels
+     */
+    public IterationBuffer(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        smooth = new float[width * height];
+        Arrays.fill(smooth, UNKNOWN);
+    }
+
+    /**
+     Returns whether a value is UNKNOWN
+     @param value a smooth iteration value
+     @return true if the pixel hasn't been computed yet
+     */
+    public static boolean isUnknown(float value)
+    {
+        return value != value;
+    }
+
+    /**
+     Returns the width of the frame
+     @return width in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     Returns the height of the frame
+     @return height in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     Returns the backing array of smooth iteration values. Writes to the
+     array are visible through this buffer.
+     <p/>
+     @return the values, indexed by <code>y * width + x</code>
+     */
+    public float[] getSmooth()
+    {
+        return smooth;
+    }
+}
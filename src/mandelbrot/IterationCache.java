@@ -0,0 +1,350 @@
+package mandelbrot;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ A least-recently-used cache of finished {@link IterationBuffer}s, so that a
+ frame that was rendered before can be shown again without iterating.
+ <p/>
+ Buffers are stored compressed, see {@link #compress(IterationBuffer)}, and
+ the cache evicts the least recently used ones whenever the compressed
+ buffers add up to more than its memory budget. Keys are any objects with
+ equals and hashCode that describe everything a frame depends on, such as
+ its view, size and iteration limit. Each buffer is stored with the limit
+ it was rendered at, so a panel that chooses its limit from the view can
+ leave the limit out of the key and skip choosing it on a hit.
+ <p/>
+ An IterationCache is thread safe: {@link FractalCanvas} looks frames up on
+ its render thread and stores them on the event dispatch thread.
+ <p/>
+ @author Joey Bloom
+ */
+public class IterationCache
+{
+    /**
+     The default memory budget, in bytes.
+     */
+    public static final long DEFAULT_BUDGET = 64L << 20;
+
+    //smooth values are stored as multiples of 1/QUANTUM iterations,
+    //which is finer than any PaletteTable step
+    private static final float QUANTUM = 1024;
+    //stored for INSIDE; every escaped value is stored as at least 1
+    private static final long INSIDE_CODE = 0;
+    //smooth values never fall this far below 0
+    private static final long OFFSET = 1L << 20;
+
+    private final LinkedHashMap<Object, CachedFrame> entries = new LinkedHashMap<>(16, .75f, true);
+    private long budget;
+    private long size;
+    private long hits;
+    private long misses;
+
+    /**
+     Constructs an IterationCache with the default memory budget.
+     */
+    public IterationCache()
+    {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     Constructs an IterationCache.
+     <p/>
+     @param budget the most bytes of compressed buffers to keep
+     */
+    public IterationCache(long budget)
+    {
+        this.budget = budget;
+    }
+
+    /**
+     A compressed buffer and the iteration limit it was rendered at.
+     */
+    public static final class CachedFrame
+    {
+        private final byte[] data;
+        private final int iterations;
+
+        /**
+         Constructs a CachedFrame.
+         <p/>
+         @param data       the buffer, as returned by
+                           {@link IterationCache#compress(IterationBuffer)}
+         @param iterations the iteration limit of the buffer
+         */
+        public CachedFrame(byte[] data, int iterations)
+        {
+            this.data = data;
+            this.iterations = iterations;
+        }
+
+        /**
+         Returns the compressed buffer
+         @return the buffer, for {@link IterationCache#decompress(byte[], int, int)}
+         */
+        public byte[] getData()
+        {
+            return data;
+        }
+
+        /**
+         Returns the iteration limit the buffer was rendered at
+         @return the limit
+         */
+        public int getIterations()
+        {
+            return iterations;
+        }
+    }
+
+    /**
+     Returns the frame stored under a key, and marks it as the most
+     recently used.
+     <p/>
+     @param key the key
+     @return the frame, or null if there isn't one
+     */
+    public synchronized CachedFrame get(Object key)
+    {
+        CachedFrame data = entries.get(key);
+        if(data == null)
+        {
+            misses++;
+        }
+        else
+        {
+            hits++;
+        }
+        return data;
+    }
+
+    /**
+     Stores a frame under a key, evicting the least recently used frames if
+     the budget is exceeded. A frame bigger than the whole budget isn't
+     stored.
+     <p/>
+     @param key   the key
+     @param frame the frame
+     */
+    public synchronized void put(Object key, CachedFrame frame)
+    {
+        CachedFrame old = entries.remove(key);
+        if(old != null)
+        {
+            size -= old.data.length;
+        }
+        if(frame.data.length > budget)
+        {
+            return;
+        }
+        entries.put(key, frame);
+        size += frame.data.length;
+        evict();
+    }
+
+    /**
+     Changes the memory budget, evicting buffers if the cache is now over it.
+     <p/>
+     @param budget the most bytes of compressed buffers to keep
+     */
+    public synchronized void setBudget(long budget)
+    {
+        this.budget = budget;
+        evict();
+    }
+
+    /**
+     Returns the memory budget
+     @return the most bytes of compressed buffers kept
+     */
+    public synchronized long getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     Returns the total size of the compressed buffers in the cache
+     @return the size in bytes
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     Returns the number of buffers in the cache
+     @return the number of entries
+     */
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    /**
+     Returns how many lookups found a buffer
+     @return the number of hits
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     Returns how many lookups found nothing
+     @return the number of misses
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return entries.size() + " frames, " + (size >> 10) + " of " + (budget >> 10) + " KB, "
+            + hits + " hits, " + misses + " misses";
+    }
+
+    /**
+     Removes every buffer from the cache.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        size = 0;
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<Object, CachedFrame>> eldest = entries.entrySet().iterator();
+        while(size > budget && eldest.hasNext())
+        {
+            size -= eldest.next().getValue().data.length;
+            eldest.remove();
+        }
+    }
+
+    /**
+     Compresses a finished buffer.
+     <p/>
+     Each smooth value is quantized to 1/1024 of an iteration, which is
+     finer than a PaletteTable can show. The quantized values are then
+     stored row by row as the zigzag-encoded difference from the previous
+     pixel, in a variable-length encoding of 7 bits per byte, and a run of
+     equal pixels, like the inside of the set, is stored as a single zero
+     difference followed by the length of the run. Neighbouring pixels
+     mostly have close values, so most pixels take one or two bytes.
+     <p/>
+     @param buffer the buffer, with no UNKNOWN pixels
+     @return the compressed buffer
+     */
+    public static byte[] compress(IterationBuffer buffer)
+    {
+        float[] smooth = buffer.getSmooth();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(smooth.length);
+        long previous = INSIDE_CODE;
+        int i = 0;
+        while(i < smooth.length)
+        {
+            long code = encode(smooth[i]);
+            long delta = code - previous;
+            writeVarint(out, (delta << 1) ^ (delta >> 63)); //zigzag
+            i++;
+            if(delta == 0)
+            {
+                int run = 0;
+                while(i < smooth.length && encode(smooth[i]) == code)
+                {
+                    run++;
+                    i++;
+                }
+                writeVarint(out, run);
+            }
+            previous = code;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     Restores a buffer compressed by {@link #compress(IterationBuffer)}.
+     <p/>
+     @param data   the compressed buffer
+     @param width  the width of the buffer in pixels
+     @param height the height of the buffer in pixels
+     @return the buffer, with each smooth value rounded to 1/1024 of an
+             iteration
+     */
+    public static IterationBuffer decompress(byte[] data, int width, int height)
+    {
+        IterationBuffer buffer = new IterationBuffer(width, height);
+        float[] smooth = buffer.getSmooth();
+        int[] position = new int[1];
+        long code = INSIDE_CODE;
+        int i = 0;
+        while(i < smooth.length)
+        {
+            long zigzag = readVarint(data, position);
+            long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+            code += delta;
+            float value = decode(code);
+            smooth[i++] = value;
+            if(delta == 0)
+            {
+                for(long run = readVarint(data, position); run > 0; run--)
+                {
+                    smooth[i++] = value;
+                }
+            }
+        }
+        return buffer;
+    }
+
+    private static long encode(float smooth)
+    {
+        if(smooth == IterationBuffer.INSIDE)
+        {
+            return INSIDE_CODE;
+        }
+        return Math.max(1, Math.round(smooth * (double) QUANTUM) + OFFSET);
+    }
+
+    private static float decode(long code)
+    {
+        if(code == INSIDE_CODE)
+        {
+            return IterationBuffer.INSIDE;
+        }
+        return (float) ((code - OFFSET) / (double) QUANTUM);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value)
+    {
+        while((value & ~0x7FL) != 0)
+        {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    //reads the varint at position[0] and moves position[0] past it
+    private static long readVarint(byte[] data, int[] position)
+    {
+        long value = 0;
+        int shift = 0;
+        while(true)
+        {
+            byte b = data[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0)
+            {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package mandelbrot;
+
+/**
+ Chooses the iteration limit of a frame from its zoom depth and a cheap,
+ low-resolution pilot pass.
+ <p/>
+ The pilot samples the view at 1/8 of the frame's resolution in each
+ direction, starting from a limit that grows with the zoom depth. The limit
+ is doubled until fewer than a threshold fraction of the pilot pixels change
+ class, that is, were inside at the lower limit and escape at the higher
+ one. Two limits where hardly any pixel escapes, or where even the earliest
+ escape is close to the limit, don't count as agreeing, since deep views
+ often escape only well beyond the starting limit. The final limit is then
+ lowered again, to just above the highest escape count the pilot saw, so
+ shallow views don't pay for iterations they don't need.
+ <p/>
+ Escape counts are read off the smooth iteration values, so the pilot
+ kernel must return values close to the escape iteration, as
+ {@link MandelbrotKernel} and the other Mandelbrot kernels do. If the kernel
+ can save its orbits, each doubling only continues the orbits of the pilot
+ pixels that hadn't escaped.
+ <p/>
+ The limit chosen last and what its pilot cost are kept, so the tuning can
+ be audited, see {@link #getLimit()} and {@link #getPilotNanos()}.
+ <p/>
+ @author Joey Bloom
+ */
+public class IterationController
+{
+    /**
+     The default fraction of pilot pixels allowed to change class when the
+     limit is doubled.
+     */
+    public static final double DEFAULT_THRESHOLD = .01;
+
+    /**
+     The lowest limit the controller chooses.
+     */
+    public static final int MIN_ITERATIONS = 32;
+
+    /**
+     The highest limit the controller chooses.
+     */
+    public static final int MAX_ITERATIONS = 1 << 16;
+
+    //the pilot samples every PILOT_STEP-th pixel in each direction
+    private static final int PILOT_STEP = 8;
+    //the limit the pilot starts from at the home view, and how much it
+    //grows per decade of zoom
+    private static final int BASE_ITERATIONS = 64;
+    private static final int ITERATIONS_PER_DECADE = 64;
+    //a pass where fewer than this fraction of the pilot pixels escape
+    //hasn't reached the view's escape counts yet
+    private static final double MIN_ESCAPED_FRACTION = .001;
+    //nor has a pass whose earliest escape is later than this fraction of
+    //its limit
+    private static final double LATE_ESCAPE_FRACTION = .5;
+    //the chosen limit is rounded up to one of this many steps per octave
+    private static final int STEPS_PER_OCTAVE = 4;
+
+    /**
+     Creates the kernels of the pilot pass.
+     */
+    public interface KernelFactory
+    {
+        /**
+         Creates a kernel for the same view as the frame being tuned, at a
+         lower resolution. Called on the thread that calls choose.
+         <p/>
+         @param width  the width of the pilot frame in pixels
+         @param height the height of the pilot frame in pixels
+         @param itr    the iteration limit of the pilot frame
+         @return the kernel
+         */
+        EscapeKernel createKernel(int width, int height, int itr);
+
+        /**
+         Returns whether the frame being tuned is no longer wanted, in which
+         case choose stops after the current pass.
+         <p/>
+         @return true to stop the pilot
+         */
+        boolean isCancelled();
+    }
+
+    private final TiledRenderer renderer = new TiledRenderer();
+    private double threshold = DEFAULT_THRESHOLD;
+    //chosen on the render thread and read on the event dispatch thread
+    private volatile int limit;
+    private volatile long pilotNanos;
+    private volatile int pilotPasses;
+    private volatile long pilotSamples;
+
+    /**
+     Chooses the iteration limit of a frame.
+     <p/>
+     @param factory creates the pilot kernels
+     @param width   the width of the frame in pixels
+     @param height  the height of the frame in pixels
+     @param decades how many powers of 10 the view is zoomed in from the
+                    home view
+     @return the iteration limit, between MIN_ITERATIONS and MAX_ITERATIONS,
+             or the limit of the last pass if the factory was cancelled
+     */
+    public int choose(KernelFactory factory, int width, int height, double decades)
+    {
+        long start = System.nanoTime();
+        int pilotWidth = Math.max(1, (width + PILOT_STEP - 1) / PILOT_STEP);
+        int pilotHeight = Math.max(1, (height + PILOT_STEP - 1) / PILOT_STEP);
+        int pixels = pilotWidth * pilotHeight;
+        pilotPasses = 0;
+        pilotSamples = 0;
+
+        int itr = Integer.highestOneBit(
+            (int) Math.min(MAX_ITERATIONS, BASE_ITERATIONS + ITERATIONS_PER_DECADE * Math.max(0, decades)));
+        OrbitStore orbits = null;
+        float[] previous = null;
+        float[] values;
+        while(true)
+        {
+            EscapeKernel kernel = factory.createKernel(pilotWidth, pilotHeight, itr);
+            if(kernel.getOrbitStateSize() > 0 && orbits == null)
+            {
+                orbits = new OrbitStore(pilotWidth, pilotHeight, kernel.getOrbitStateSize());
+            }
+            values = pilot(kernel, pilotWidth, pilotHeight, orbits);
+            if(previous != null && changedClass(previous, values) <= threshold * pixels
+                && !tooFewEscapes(values, itr, pixels))
+            {
+                break;
+            }
+            if(itr >= MAX_ITERATIONS || factory.isCancelled())
+            {
+                break;
+            }
+            previous = values;
+            itr *= 2;
+        }
+
+        //if hardly anything escapes even at the cap, the view is inside or
+        //deeper than the cap, and trimming would cut it to nothing
+        limit = tooFewEscapes(values, itr, pixels) ? itr : trim(values, itr);
+        pilotNanos = System.nanoTime() - start;
+        return limit;
+    }
+
+    //samples every pilot pixel that orbits doesn't already decide
+    private float[] pilot(final EscapeKernel kernel, final int width, int height, OrbitStore orbits)
+    {
+        final IterationBuffer buffer = new IterationBuffer(width, height);
+        if(orbits != null)
+        {
+            orbits.fill(buffer, kernel.getFrame().getIterations());
+        }
+        final float[] smooth = buffer.getSmooth();
+        final long[] sampled = new long[1];
+        kernel.setOrbits(orbits);
+        renderer.render(width, height, new TiledRenderer.TileTask()
+        {
+            @Override
+            public void renderTile(int x0, int y0, int x1, int y1)
+            {
+                int[] xs = new int[x1 - x0];
+                float[] out = new float[x1 - x0];
+                int total = 0;
+                for(int y = y0; y < y1; y++)
+                {
+                    int count = 0;
+                    for(int x = x0; x < x1; x++)
+                    {
+                        if(IterationBuffer.isUnknown(smooth[y * width + x]))
+                        {
+                            xs[count++] = x;
+                        }
+                    }
+                    kernel.sampleRow(y, xs, count, out);
+                    for(int k = 0; k < count; k++)
+                    {
+                        smooth[y * width + xs[k]] = out[k];
+                    }
+                    total += count;
+                }
+                synchronized(sampled)
+                {
+                    sampled[0] += total;
+                }
+            }
+        });
+        kernel.setOrbits(null);
+        pilotPasses++;
+        pilotSamples += sampled[0];
+        return smooth;
+    }
+
+    //the number of pixels inside at the lower limit that escape at the higher
+    private static int changedClass(float[] lower, float[] higher)
+    {
+        int changed = 0;
+        for(int i = 0; i < lower.length; i++)
+        {
+            if(lower[i] == IterationBuffer.INSIDE && higher[i] != IterationBuffer.INSIDE)
+            {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    //whether a pass at itr has hardly any escapes, or only late ones
+    private static boolean tooFewEscapes(float[] values, int itr, int pixels)
+    {
+        int escaped = 0;
+        float lowest = Float.POSITIVE_INFINITY;
+        for(float value : values)
+        {
+            if(value != IterationBuffer.INSIDE)
+            {
+                escaped++;
+                lowest = Math.min(lowest, value);
+            }
+        }
+        return escaped < MIN_ESCAPED_FRACTION * pixels || lowest > LATE_ESCAPE_FRACTION * itr;
+    }
+
+    //the smallest limit, rounded up to a step of an octave, above every
+    //escape count within itr
+    private static int trim(float[] values, int itr)
+    {
+        int highest = 0;
+        for(float value : values)
+        {
+            if(value != IterationBuffer.INSIDE)
+            {
+                highest = Math.max(highest, Math.min(itr, (int) value));
+            }
+        }
+        int trimmed = Math.max(MIN_ITERATIONS, highest + 1);
+        int step = Math.max(1, Integer.highestOneBit(trimmed) / STEPS_PER_OCTAVE);
+        return Math.min(itr, (trimmed + step - 1) / step * step);
+    }
+
+    /**
+     Changes the fraction of pilot pixels allowed to change class when the
+     limit is doubled. Lower thresholds choose higher limits.
+     <p/>
+     @param threshold the fraction, between 0 and 1
+     */
+    public void setThreshold(double threshold)
+    {
+        this.threshold = threshold;
+    }
+
+    /**
+     Returns the fraction of pilot pixels allowed to change class when the
+     limit is doubled
+     @return the threshold
+     */
+    public double getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     Returns the limit chosen last
+     @return the iteration limit, or 0 if none was chosen yet
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     Returns how long the last pilot took
+     @return the time in nanoseconds
+     */
+    public long getPilotNanos()
+    {
+        return pilotNanos;
+    }
+
+    /**
+     Returns how many limits the last pilot sampled
+     @return the number of passes
+     */
+    public int getPilotPasses()
+    {
+        return pilotPasses;
+    }
+
+    /**
+     Returns how many pixels the last pilot sampled, over all its passes
+     @return the number of samples
+     */
+    public long getPilotSamples()
+    {
+        return pilotSamples;
+    }
+
+    @Override
+    public String toString()
+    {
+        return limit + " (pilot: " + pilotPasses + " passes, " + pilotSamples
+            + " samples, " + pilotNanos / 1000000 + " ms)";
+    }
+}
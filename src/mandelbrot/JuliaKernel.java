@@ -0,0 +1,124 @@
+package mandelbrot;
+
+/**
+ Samples the Julia set of a fixed c in double precision.
+ <p/>
+ Z begins at the coordinates of the pixel. Uses the smooth coloring method
+ described by Paxinum here:
+ <a>http://stackoverflow.com/questions/369438/smooth-spectrum-for-mandelbrot-set-rendering</a>
+ <p/>
+ Orbits that haven't escaped at the iteration limit can be saved in an
+ {@link OrbitStore} along with their partial smooth sum, and are continued
+ from there when the limit is raised.
+ <p/>
+ @author Joey Bloom
+ */
+public class JuliaKernel extends EscapeKernel
+{
+    //z and the smooth sum are saved for every running orbit
+    private static final int STATE_SIZE = 3;
+
+    private final double cA;
+    private final double cB;
+
+    /**
+     Constructs a JuliaKernel.
+     <p/>
+     @param frame the frame whose pixels will be sampled
+     @param cA    real component of c
+     @param cB    imaginary component of c
+     */
+    public JuliaKernel(RenderFrame frame, double cA, double cB)
+    {
+        super(frame);
+        this.cA = cA;
+        this.cB = cB;
+    }
+
+    @Override
+    public float sample(int x, int y)
+    {
+        final int itr = frame.getIterations();
+        final OrbitStore orbits = getOrbits();
+        final int index = y * frame.getWidth() + x;
+        double zA = frame.real(x);      //real component of z
+        double zB = frame.imaginary(y); //imaginary component of z
+        double smoothColor = PaletteTable.expNegSqrt(zA * zA + zB * zB);
+        int start = orbits == null ? 0 : orbits.getResumeDepth(index);
+        if(start > 0)
+        {
+            //continue the orbit from where a lower limit stopped it
+            double[] state = orbits.getState();
+            zA = state[index * STATE_SIZE];
+            zB = state[index * STATE_SIZE + 1];
+            smoothColor = state[index * STATE_SIZE + 2];
+        }
+        for(int i = start; i < itr; i++)
+        {
+            double zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
+            zB = (2 * zA * zB) + cB;
+            zA = zATemp;
+            double magnitudeSquared = zA * zA + zB * zB;
+            smoothColor += PaletteTable.expNegSqrt(magnitudeSquared);
+            if(magnitudeSquared > 4.0)
+            {
+//                return new Color(0x000080 + 0x080400 * i); //bands of color
+                //the following two extra iterations reduce the
+                //size of the "error term" (they make the fractal
+                //smoother)
+                zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
+                zB = (2 * zA * zB) + cB;
+                zA = zATemp;
+                smoothColor += PaletteTable.expNegSqrt(zA * zA + zB * zB);
+                zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
+                zB = (2 * zA * zB) + cB;
+                zA = zATemp;
+                smoothColor += PaletteTable.expNegSqrt(zA * zA + zB * zB);
+                if(orbits != null)
+                {
+                    orbits.escaped(index, i, (float) smoothColor);
+                }
+                return (float) smoothColor;
+            }
+        }
+        if(orbits != null)
+        {
+            double[] state = orbits.getState();
+            state[index * STATE_SIZE] = zA;
+            state[index * STATE_SIZE + 1] = zB;
+            state[index * STATE_SIZE + 2] = smoothColor;
+            orbits.running(index, itr);
+        }
+        return IterationBuffer.INSIDE;
+    }
+
+    /**
+     Returns the real component of c
+     @return the real component of c
+     */
+    public double getCA()
+    {
+        return cA;
+    }
+
+    /**
+     Returns the imaginary component of c
+     @return the imaginary component of c
+     */
+    public double getCB()
+    {
+        return cB;
+    }
+
+    @Override
+    public int getOrbitStateSize()
+    {
+        return STATE_SIZE;
+    }
+
+    @Override
+    public Symmetry getSymmetry()
+    {
+        return Symmetry.ROTATIONAL;
+    }
+}
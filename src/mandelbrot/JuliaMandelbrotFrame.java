@@ -6,7 +6,11 @@ import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
 import java.io.*;
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutionException;
 import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 import javax.swing.event.MenuEvent;
 import javax.swing.event.MenuListener;
 
@@ -37,6 +41,12 @@ public class JuliaMandelbrotFrame extends JFrame
         private JButton importView;
         private JButton exportView;
     private JMenuItem zoomControls;
+    private JMenu color;
+    private JMenuItem colorControls;
+    private JDialog colorDialog;
+    private JMenu render;
+    private JCheckBoxMenuItem automaticIterations;
+    private JMenuItem compareRender;
     /**
      * Constructs a JuliaMandelbrotFrame
      */
@@ -58,6 +68,12 @@ public class JuliaMandelbrotFrame extends JFrame
             @Override
             public void mouseMoved(MouseEvent e)
             {
+                //nearby cursor positions share a cached Julia set, the one
+                //of the point that the pixel under the cursor samples
+                View view = mand.getFractalPanel().getView();
+                julia.setCGrid(view.getLeft().doubleValue(), view.getTop().doubleValue(),
+                    view.getWidth() / mand.getFractalPanel().getWidth(),
+                    view.getHeight() / mand.getFractalPanel().getHeight());
                 double[] cpx = mand.pixelToCoord(e.getX(), e.getY());
                 julia.setC(cpx[0], cpx[1]);
             }
@@ -87,11 +103,11 @@ public class JuliaMandelbrotFrame extends JFrame
             @Override
             public void menuSelected(MenuEvent e)
             {
-                double[] currentView = mand.getFractalPanel().getView();
-                left.setText(currentView[0]+"");
-                right.setText(currentView[1]+"");
-                top.setText(currentView[2]+"");
-                bottom.setText(currentView[3]+"");
+                View currentView = mand.getFractalPanel().getView();
+                left.setText(currentView.getLeft().toString());
+                right.setText(currentView.getRight().toString());
+                top.setText(currentView.getTop().toString());
+                bottom.setText(currentView.getBottom().toString());
             }
             @Override
             public void menuDeselected(MenuEvent e){}
@@ -111,17 +127,18 @@ public class JuliaMandelbrotFrame extends JFrame
             {
                 try
                 {
-                    mand.getFractalPanel().setView(
-                        Double.parseDouble(left.getText()),
-                        Double.parseDouble(right.getText()),
-                        Double.parseDouble(top.getText()),
-                        Double.parseDouble(bottom.getText())
-                    );
+                    mand.getFractalPanel().setView(View.fromBounds(
+                        new BigDecimal(left.getText().trim()),
+                        new BigDecimal(right.getText().trim()),
+                        new BigDecimal(top.getText().trim()),
+                        new BigDecimal(bottom.getText().trim())
+                    ));
 //                    view.getPopupMenu().setVisible(false);
                     mand.repaint();
                 }
-                catch(NumberFormatException ex)
+                catch(IllegalArgumentException ex)
                 {
+                    //NumberFormatException, or an empty view
                     JOptionPane.showMessageDialog(JuliaMandelbrotFrame.this, ex);
                 }
             }
@@ -173,13 +190,14 @@ public class JuliaMandelbrotFrame extends JFrame
                     }
                     try(BufferedReader in = new BufferedReader(new FileReader(new File("views\\"+name))))
                     {
-                        left.setText(in.readLine());
-                        right.setText(in.readLine());
-                        top.setText(in.readLine());
-                        bottom.setText(in.readLine());
+                        View imported = View.read(in);
+                        left.setText(imported.getLeft().toString());
+                        right.setText(imported.getRight().toString());
+                        top.setText(imported.getTop().toString());
+                        bottom.setText(imported.getBottom().toString());
                         setView.doClick();
                     }
-                    catch(IOException ex)
+                    catch(IOException | NumberFormatException ex)
                     {
                         JOptionPane.showMessageDialog(JuliaMandelbrotFrame.this, ex);
                     }
@@ -218,11 +236,7 @@ public class JuliaMandelbrotFrame extends JFrame
 //                    }
                     try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(new File("views/"+name)))))
                     {
-                        double[] currentView = mand.getFractalPanel().getView();
-                        out.println(currentView[0]);
-                        out.println(currentView[1]);
-                        out.println(currentView[2]);
-                        out.println(currentView[3]);
+                        mand.getFractalPanel().getView().write(out);
                     }
                     catch(IOException ex)
                     {
@@ -244,11 +258,278 @@ public class JuliaMandelbrotFrame extends JFrame
                     "\nZoom in: click a point or drag a box." +
                     "\nZoom out to last view: shift-click anywhere." +
                     "\nZoom out all the way: ctrl-shift-click anywhere" +
+                    "\nPan: ctrl-drag, or the arrow keys" +
                     "\n\n Hold alt to move the cursor without changing the" +
                     "\n right side or the C= box.");
             }
         });
         view.add(zoomControls);
+
+        color = new JMenu("Color");
+        ButtonGroup paletteGroup = new ButtonGroup();
+        addPaletteItem("Rainbow", new HSBPalette(), paletteGroup).setSelected(true);
+        addPaletteItem("Grayscale", new GrayscalePalette(), paletteGroup);
+        color.add(new JSeparator());
+        colorControls = new JMenuItem("Color Controls...");
+        colorControls.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                showColorControls();
+            }
+        });
+        color.add(colorControls);
+        menubar.add(color);
+
+        render = new JMenu("Render");
+        ButtonGroup strategyGroup = new ButtonGroup();
+        addStrategyItem(ProgressiveStrategy.singlePass(), strategyGroup);
+        addStrategyItem(mand.getFractalPanel().getRenderStrategy(), strategyGroup).setSelected(true);
+        addStrategyItem(new MarianiSilverStrategy(), strategyGroup);
+        addStrategyItem(new MarianiSilverStrategy(true), strategyGroup);
+        render.add(new JSeparator());
+        ButtonGroup precisionGroup = new ButtonGroup();
+        JRadioButtonMenuItem automatic = new JRadioButtonMenuItem("Automatic Precision");
+        automatic.setSelected(mand.getFractalPanel().isAutomaticPrecision());
+        automatic.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                mand.getFractalPanel().setAutomaticPrecision(true);
+            }
+        });
+        precisionGroup.add(automatic);
+        render.add(automatic);
+        for(final Precision precision : Precision.values())
+        {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(precision.toString());
+            item.setSelected(!mand.getFractalPanel().isAutomaticPrecision()
+                && precision == mand.getFractalPanel().getPrecision());
+            item.addActionListener(new ActionListener(){
+                @Override
+                public void actionPerformed(ActionEvent e)
+                {
+                    mand.getFractalPanel().setPrecision(precision);
+                }
+            });
+            precisionGroup.add(item);
+            render.add(item);
+        }
+        render.add(new JSeparator());
+        automaticIterations = new JCheckBoxMenuItem("Automatic Mandelbrot Iterations");
+        automaticIterations.setSelected(mand.getFractalPanel().isAutomaticIterations());
+        automaticIterations.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                mand.getFractalPanel().setAutomaticIterations(automaticIterations.isSelected());
+            }
+        });
+        render.add(automaticIterations);
+        addIterationsItem("Mandelbrot Iterations...", mand.getFractalPanel());
+        addIterationsItem("Julia Iterations...", julia);
+        final JCheckBoxMenuItem outline = new JCheckBoxMenuItem("Julia Outline While Tracking");
+        outline.setSelected(julia.isOutlineWhileTracking());
+        outline.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                julia.setOutlineWhileTracking(outline.isSelected());
+            }
+        });
+        render.add(outline);
+        final JCheckBoxMenuItem symmetric = new JCheckBoxMenuItem("Mirror Symmetric Frames");
+        symmetric.setSelected(julia.isSymmetric());
+        symmetric.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                mand.getFractalPanel().setSymmetric(symmetric.isSelected());
+                julia.setSymmetric(symmetric.isSelected());
+            }
+        });
+        render.add(symmetric);
+        render.add(new JSeparator());
+        compareRender = new JMenuItem("Compare with Brute Force...");
+        compareRender.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                compareWithBruteForce();
+            }
+        });
+        render.add(compareRender);
+        JMenuItem cacheStatistics = new JMenuItem("Cache Statistics...");
+        cacheStatistics.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                JOptionPane.showMessageDialog(JuliaMandelbrotFrame.this,
+                    "Mandelbrot: " + mand.getFractalPanel().getIterationCache()
+                    + "\nJulia: " + julia.getIterationCache(),
+                    "Cache Statistics", JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
+        render.add(cacheStatistics);
+        menubar.add(render);
+    }
+
+    //adds an item to the Render menu that switches both panels to strategy
+    private JRadioButtonMenuItem addStrategyItem(final RenderStrategy strategy, ButtonGroup group)
+    {
+        JRadioButtonMenuItem item = new JRadioButtonMenuItem(strategy.getName());
+        item.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                mand.getFractalPanel().setRenderStrategy(strategy);
+                julia.setRenderStrategy(strategy);
+            }
+        });
+        group.add(item);
+        render.add(item);
+        return item;
+    }
+
+    //adds an item to the Render menu that asks for a new iteration limit
+    //for panel
+    private void addIterationsItem(final String name, final FractalCanvas panel)
+    {
+        JMenuItem item = new JMenuItem(name);
+        item.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                String input = JOptionPane.showInputDialog(JuliaMandelbrotFrame.this,
+                    "Iteration limit:", panel.getIterations());
+                if(input == null)
+                {
+                    return;
+                }
+                try
+                {
+                    panel.setIterations(Integer.parseInt(input.trim()));
+                    automaticIterations.setSelected(mand.getFractalPanel().isAutomaticIterations());
+                }
+                catch(IllegalArgumentException ex)
+                {
+                    JOptionPane.showMessageDialog(JuliaMandelbrotFrame.this,
+                        "The iteration limit must be a positive whole number.");
+                }
+            }
+        });
+        render.add(item);
+    }
+
+    //samples every pixel of the current Mandelbrot view in the background
+    //and reports how far the render strategy's frame is from it
+    private void compareWithBruteForce()
+    {
+        final MandelbrotPanelDouble.FractalPanel panel = mand.getFractalPanel();
+        final EscapeKernel kernel = panel.getFinishedKernel();
+        final FractalCanvas.FrameFactory factory = panel.getFinishedFactory();
+        final IterationBuffer iterations = panel.getFinishedIterations();
+        final PaletteTable table = panel.getPaletteTable();
+        if(kernel == null)
+        {
+            JOptionPane.showMessageDialog(this, "The view hasn't finished rendering yet.");
+            return;
+        }
+        final String strategy = panel.getRenderStrategy().getName();
+        //mirroring rounds differently from sampling, so its differences
+        //are reported apart from the strategy's
+        final Mirror mirror = panel.isSymmetric() && panel.getRenderStrategy().isReusable()
+            ? Mirror.of(kernel) : null;
+        new SwingWorker<RenderDiff, Void>(){
+            @Override
+            protected RenderDiff doInBackground()
+            {
+                //a kernel of its own, so the statistics of the frame on
+                //screen don't count the brute-force samples
+                return RenderDiff.compare(factory.createKernel(kernel.getFrame()), iterations, table, mirror);
+            }
+
+            @Override
+            protected void done()
+            {
+                try
+                {
+                    JOptionPane.showMessageDialog(JuliaMandelbrotFrame.this,
+                        strategy + " vs. brute force:\n" + get());
+                }
+                catch(InterruptedException | ExecutionException ex)
+                {
+                    JOptionPane.showMessageDialog(JuliaMandelbrotFrame.this, ex);
+                }
+            }
+        }.execute();
+    }
+
+    //shows a window of sliders that recolor both panels as they move
+    private void showColorControls()
+    {
+        if(colorDialog != null)
+        {
+            colorDialog.setVisible(true);
+            return;
+        }
+        //offset in hundredths of the palette, speed in tenths
+        final JSlider offset = new JSlider(0, 100, Math.round(100 * julia.getColorOffset()));
+        final JSlider speed = new JSlider(1, 100, Math.round(10 * julia.getColorSpeed()));
+        final JCheckBox equalize = new JCheckBox("Histogram equalization", julia.isHistogramEqualization());
+        offset.addChangeListener(new ChangeListener(){
+            @Override
+            public void stateChanged(ChangeEvent e)
+            {
+                mand.getFractalPanel().setColorOffset(offset.getValue() / 100f);
+                julia.setColorOffset(offset.getValue() / 100f);
+            }
+        });
+        speed.addChangeListener(new ChangeListener(){
+            @Override
+            public void stateChanged(ChangeEvent e)
+            {
+                mand.getFractalPanel().setColorSpeed(speed.getValue() / 10f);
+                julia.setColorSpeed(speed.getValue() / 10f);
+            }
+        });
+        equalize.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                mand.getFractalPanel().setHistogramEqualization(equalize.isSelected());
+                julia.setHistogramEqualization(equalize.isSelected());
+            }
+        });
+
+        JPanel controls = new JPanel(new GridLayout(3, 2));
+        controls.add(new JLabel("Offset"));
+        controls.add(offset);
+        controls.add(new JLabel("Cycle speed"));
+        controls.add(speed);
+        controls.add(equalize);
+        colorDialog = new JDialog(this, "Color Controls");
+        colorDialog.add(controls);
+        colorDialog.pack();
+        colorDialog.setLocationRelativeTo(this);
+        colorDialog.setVisible(true);
+    }
+
+    //adds an item to the Color menu that switches both panels to palette
+    private JRadioButtonMenuItem addPaletteItem(String name, final Palette palette, ButtonGroup group)
+    {
+        JRadioButtonMenuItem item = new JRadioButtonMenuItem(name);
+        item.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                mand.getFractalPanel().setPalette(palette);
+                julia.setPalette(palette);
+            }
+        });
+        group.add(item);
+        color.add(item);
+        return item;
     }
 
     public static void main(String[] args)
@@ -1,9 +1,9 @@
 package mandelbrot;
 
-
-import java.awt.Color;
-import java.awt.Graphics;
-import javax.swing.JPanel;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import javax.swing.Timer;
 
 /**
 Assignment #10
@@ -12,18 +12,72 @@ Shows one of the infinitely many Julia sets.
 <p/>
 Uses the smooth coloring method described by Paxinum here:
 <a>http://stackoverflow.com/questions/369438/smooth-spectrum-for-mandelbrot-set-rendering</a>
+<p/>
+c usually tracks the mouse, so {@link #setC(double, double)} coalesces
+changes: a new frame is started at most once per frame interval, for the
+newest c, and starting it aborts the frame in flight between rows. Without
+the cap, a fast mouse would abort every frame before it finished.
+<p/>
+While c moves, frames are also sampled at 1/2 or 1/4 of the panel's
+resolution when a full one wouldn't keep up: the scale is chosen from a
+moving average of how long recent frames took per pixel, and one step
+coarser while c moves fast. Once c has been still for a moment the preview
+is refined at full resolution.
+<p/>
+Alternatively, while c moves, only the outline of the set can be drawn by
+inverse iteration, see {@link #setOutlineWhileTracking(boolean)}, which
+costs in proportion to the boundary rather than to the panel, so it keeps up
+at full resolution. The escape time frame is still rendered once c is still.
+<p/>
+Finished frames are cached by c, so sweeping the mouse back over c values
+that were shown before only looks them up. c can be snapped to a grid, see
+{@link #setCGrid(double, double, double, double)}, ideally the pixel grid of the Mandelbrot
+set it is picked from, so that nearby cursor positions share a frame.
 @author Joey Bloom
  */
-public class JuliaPanelDouble extends JPanel
+public class JuliaPanelDouble extends FractalCanvas
 {
     private double left;
     private double top;
     private double right;
     private double bottom;
-    private int itr = 25;
 
     private double cA;
     private double cB;
+    //c is snapped to the origin plus multiples of the spacings, unless
+    //they are 0
+    private double originA;
+    private double originB;
+    private double gridA;
+    private double gridB;
+
+    //starts the frame for the newest c once the frame interval is up
+    private final Timer frameTimer;
+    private long frameIntervalNanos = 1000000000L / 60;
+    //when the last frame for a new c was started
+    private long lastFrameNanos;
+
+    //the preview is refined once c has been still for this long
+    private static final int REFINE_DELAY_MILLIS = 150;
+    //the weight of the newest value in the moving averages
+    private static final double AVERAGE_WEIGHT = .25;
+    //c moving faster than this, in units per second, costs one more
+    //step of resolution
+    private static final double FAST_C_PER_SECOND = 1;
+    private static final int MAX_SAMPLE_SCALE = 4;
+
+    private final Timer refineTimer;
+    //moving averages of finished frames
+    private double nanosPerPixel;
+    private double frameNanos;
+    //moving average of how fast c moves, in units per second
+    private double velocity;
+    private long lastCNanos;
+
+    private final RenderStrategy outline = new InverseIterationStrategy();
+    private boolean outlineWhileTracking;
+    //whether the frames started now are outlines
+    private boolean outlining;
 
 //    private MathContext mc = new MathContext(4, RoundingMode.HALF_EVEN);
 
@@ -34,6 +88,7 @@ public class JuliaPanelDouble extends JPanel
      */
     public JuliaPanelDouble(double a, double b)
     {
+        super(25, "Julia renderer");
         left = -2;
         right = 2;
         top = -1;
@@ -41,82 +96,243 @@ public class JuliaPanelDouble extends JPanel
 
         cA = a;
         cB = b;
+
+        frameTimer = new Timer(0, new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                startFrame();
+            }
+        });
+        frameTimer.setRepeats(false);
+        refineTimer = new Timer(REFINE_DELAY_MILLIS, new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                refine();
+            }
+        });
+        refineTimer.setRepeats(false);
     }
 
     /**
-     * Sets the c value for this julia set
+     * Sets the c value for this julia set. Returns immediately; the julia
+     * set is rendered in the background.
      * @param a real component of c
      * @param b imaginary component of c
      */
     public void setC(double a, double b)
     {
+        if(gridA > 0 && gridB > 0)
+        {
+            a = originA + Math.rint((a - originA) / gridA) * gridA;
+            b = originB + Math.rint((b - originB) / gridB) * gridB;
+        }
+        if(a == cA && b == cB)
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        if(lastCNanos != 0)
+        {
+            double seconds = Math.max(1e-3, (now - lastCNanos) / 1e9);
+            velocity += AVERAGE_WEIGHT * (Math.hypot(a - cA, b - cB) / seconds - velocity);
+        }
+        lastCNanos = now;
         cA = a;
         cB = b;
-        repaint();
+        refineTimer.restart();
+        long wait = frameIntervalNanos - (System.nanoTime() - lastFrameNanos);
+        if(wait <= 0)
+        {
+            frameTimer.stop();
+            startFrame();
+        }
+        else if(!frameTimer.isRunning())
+        {
+            //the frame started by the timer picks up every later c
+            frameTimer.setInitialDelay((int) ((wait + 999999) / 1000000));
+            frameTimer.start();
+        }
+    }
+
+    private void startFrame()
+    {
+        outlining = outlineWhileTracking;
+        setSampleScale(outlining ? 1 : chooseSampleScale());
+        lastFrameNanos = System.nanoTime();
+        invalidateFrame();
+    }
+
+    //the finest scale whose frame should finish within a frame interval
+    private int chooseSampleScale()
+    {
+        double pixels = (double) getWidth() * getHeight();
+        int scale = 1;
+        while(scale < MAX_SAMPLE_SCALE && nanosPerPixel * pixels / (scale * scale) > frameIntervalNanos)
+        {
+            scale *= 2;
+        }
+        if(velocity > FAST_C_PER_SECOND && scale < MAX_SAMPLE_SCALE)
+        {
+            scale *= 2;
+        }
+        return scale;
+    }
+
+    //renders the still c at full resolution
+    private void refine()
+    {
+        velocity = 0;
+        if(getSampleScale() != 1 || outlining)
+        {
+            outlining = false;
+            setSampleScale(1);
+            lastFrameNanos = System.nanoTime();
+            invalidateFrame();
+        }
+    }
+
+    @Override
+    protected void frameFinished(RenderFrame frame, long nanos)
+    {
+        if(outlining)
+        {
+            //outlines say nothing about how long escape time frames take
+            return;
+        }
+        double perPixel = (double) nanos / ((long) frame.getWidth() * frame.getHeight());
+        if(frameNanos == 0)
+        {
+            nanosPerPixel = perPixel;
+            frameNanos = nanos;
+        }
+        else
+        {
+            nanosPerPixel += AVERAGE_WEIGHT * (perPixel - nanosPerPixel);
+            frameNanos += AVERAGE_WEIGHT * (nanos - frameNanos);
+        }
     }
 
-    private double pixelsW;
-    private double pixelsH;
-    private double horizontalIncrement;
-    private double verticalIncrement;
+    /**
+     * Returns a moving average of how long recent frames took to render,
+     * at whatever scale they were sampled at
+     * @return the average frame time in nanoseconds
+     */
+    public long getAverageFrameNanos()
+    {
+        return (long) frameNanos;
+    }
 
     /**
-     * Paints a portion of the mandlebrot set on the panel.
-     * @param g
+     * Returns a moving average of how fast c has been moving
+     * @return the speed of c in units per second, 0 once c is still
      */
-    @Override
-    public void paintComponent(Graphics g)
+    public double getCursorVelocity()
+    {
+        return velocity;
+    }
+
+    /**
+     * Snaps every later c to a grid, so that c values closer together than
+     * a grid cell render, and are cached as, the same frame. For the grid of
+     * a Mandelbrot view, pass the point that one of its pixels samples as
+     * the origin, so that c snaps to the point of the pixel under it.
+     * @param originA    the real component of a point on the grid
+     * @param originB    the imaginary component of a point on the grid
+     * @param horizontal the spacing of the grid along the real axis, or 0
+     *                   to not snap c
+     * @param vertical   the spacing of the grid along the imaginary axis,
+     *                   or 0 to not snap c
+     */
+    public void setCGrid(double originA, double originB, double horizontal, double vertical)
+    {
+        this.originA = originA;
+        this.originB = originB;
+        gridA = horizontal;
+        gridB = vertical;
+    }
+
+    /**
+     * Sets whether only the outline of the set is drawn while c moves,
+     * by inverse iteration, instead of a preview of the escape time frame.
+     * @param outline true to draw outlines while c moves
+     */
+    public void setOutlineWhileTracking(boolean outline)
+    {
+        outlineWhileTracking = outline;
+    }
+
+    /**
+     * Returns whether only the outline of the set is drawn while c moves
+     * @return true if outlines are drawn while c moves
+     */
+    public boolean isOutlineWhileTracking()
+    {
+        return outlineWhileTracking;
+    }
+
+    /**
+     * Sets the most frames per second that are started while c changes.
+     * @param fps the frame rate cap <br/>
+     *            precondition: <code>fps &gt 0</code>
+     */
+    public void setMaximumFrameRate(int fps)
     {
-        pixelsW = getWidth();
-        pixelsH = getHeight();
-        horizontalIncrement = (right - left) / pixelsW;
-        verticalIncrement = (bottom - top) / pixelsH;
-        for(int x = 0; x < pixelsW; x++)
+        if(fps <= 0)
         {
-            for(int y = 0; y < pixelsH; y++)
-            {
-                g.setColor(juliaColor(x,y));
-                g.drawLine(x, y, x, y);
-            }
+            throw new IllegalArgumentException("fps must be positive: " + fps);
         }
+        frameIntervalNanos = 1000000000L / fps;
     }
 
     /**
-     * Determines how to Color a pixel of the current view of the julia set.
-     * @param x the x coordinate of a pixel on the screen
-     * @param y the y coordinate of a pixel on the screen
-     * @return the Color of a pixel on the screen
+     * Returns the most frames per second that are started while c changes
+     * @return the frame rate cap
      */
-    private Color juliaColor(int x, int y)
+    public int getMaximumFrameRate()
     {
-        double zA = left + x * horizontalIncrement; //real component of z
-        double zB = top + y * verticalIncrement;    //imaginary component of z
-        double smoothColor = Math.exp(-Math.sqrt(zA * zA + zB * zB));
-        for(int i = 0; i < itr; i++)
+        return (int) (1000000000L / frameIntervalNanos);
+    }
+
+    @Override
+    protected RenderStrategy chooseStrategy()
+    {
+        return outlining ? outline : super.chooseStrategy();
+    }
+
+    @Override
+    protected FrameFactory createFrameFactory(final int width, final int height)
+    {
+        final double left = this.left;
+        final double right = this.right;
+        final double top = this.top;
+        final double bottom = this.bottom;
+        final double cA = this.cA;
+        final double cB = this.cB;
+        return new FrameFactory()
         {
-            double zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
-            zB = (2 * zA * zB) + cB;
-            zA = zATemp;
-            smoothColor += Math.exp(-Math.sqrt(zA * zA + zB * zB));
-            if(zA * zA + zB * zB > 4.0)
+            @Override
+            public RenderFrame createFrame(int itr)
             {
-//                return new Color(0x000080 + 0x080400 * i); //bands of color
-                //the following two extra iterations reduce the
-                //size of the "error term" (they make the fractal
-                //smoother)
-                zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
-                zB = (2 * zA * zB) + cB;
-                zA = zATemp;
-                smoothColor += Math.exp(-Math.sqrt(zA * zA + zB * zB));
-                zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
-                zB = (2 * zA * zB) + cB;
-                zA = zATemp;
-                smoothColor += Math.exp(-Math.sqrt(zA * zA + zB * zB));
-                return Color.getHSBColor(.6f + 10f * (float)smoothColor/itr,.6f,1);
+                return new RenderFrame(width, height, left, right, top, bottom, itr);
+            }
 
+            @Override
+            public EscapeKernel createKernel(RenderFrame frame)
+            {
+                return new JuliaKernel(frame, cA, cB);
             }
-        }
-        return Color.black;
+
+            @Override
+            public Object cacheKey(int itr)
+            {
+                //the bounds are fixed, and c is already snapped to the grid
+                return Arrays.asList(cA, cB, width, height, itr);
+            }
+        };
     }
 
 //    public static void main(String[] args)
@@ -0,0 +1,404 @@
+package mandelbrot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Samples the Mandelbrot set in double precision.
+ <p/>
+ Z begins at C, the coordinates of the pixel, and Z = Z^2 + C is iterated
+ until the magnitude of Z escapes the radius of 2 or the iteration limit is
+ reached. Escaped pixels are given a smooth iteration value as described
+ here: <a>http://linas.org/art-gallery/escape/escape.html</a>
+ <p/>
+ Interior pixels would otherwise always cost the full iteration limit, so
+ unless interior detection is turned off, two shortcuts are taken:
+ <ul>
+ <li>Points in the main cardioid or the period-2 bulb are recognized in
+     closed form and never iterated.</li>
+ <li>The orbit is compared against a saved point whose position is moved
+     forward at power-of-two intervals (Brent's cycle detection). If Z comes
+     back to within a small fraction of a pixel of the saved point, the
+     orbit is periodic and the pixel is inside.</li>
+ </ul>
+ The number of iterations saved by these shortcuts is counted, see
+ {@link #getSkippedIterations()}.
+ <p/>
+ {@link #sampleRow(int, int[], int, float[])} iterates {@link #LANES} pixels
+ in lockstep, so the CPU can overlap their independent multiply chains. Each
+ lane is masked off as soon as its pixel escapes or is found to be inside,
+ and the group stops as soon as every lane is masked off. The lanes do
+ exactly the arithmetic that {@link #sample(int, int)} does, so both give
+ identical results.
+ <p/>
+ The orbit of every pixel that hasn't escaped at the iteration limit can be
+ saved in an {@link OrbitStore}, and is then continued from there when the
+ limit is raised. Brent's saved point isn't kept, so a resumed orbit saves
+ its first point at the depth it resumes from.
+ <p/>
+ @author Joey Bloom
+ */
+public class MandelbrotKernel extends EscapeKernel
+{
+    /**
+     The number of pixels that sampleRow iterates at once.
+     */
+    public static final int LANES = 8;
+
+    //z is saved for every running orbit
+    private static final int STATE_SIZE = 2;
+
+    //how close, as a fraction of the distance between pixels, an
+    //orbit must come back to itself to be considered periodic
+    private static final double PERIODICITY_TOLERANCE = 1e-3;
+
+    private final boolean interiorDetection;
+    private final double epsilon;
+    private final AtomicLong skippedIterations = new AtomicLong();
+    //each thread's count of the iterations skipped by the call it is in,
+    //reused so that sampling a pixel doesn't allocate
+    private static final ThreadLocal<long[]> SKIPPED = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
+
+    /**
+     Constructs a MandelbrotKernel that uses interior detection.
+     <p/>
+     @param frame the frame whose pixels will be sampled
+     */
+    public MandelbrotKernel(RenderFrame frame)
+    {
+        this(frame, true);
+    }
+
+    /**
+     Constructs a MandelbrotKernel.
+     <p/>
+     @param frame             the frame whose pixels will be sampled
+     @param interiorDetection whether to use the cardioid, bulb and
+                              periodicity shortcuts for interior pixels
+     */
+    public MandelbrotKernel(RenderFrame frame, boolean interiorDetection)
+    {
+        super(frame);
+        this.interiorDetection = interiorDetection;
+        epsilon = PERIODICITY_TOLERANCE * Math.min(
+            Math.abs(frame.getHorizontalIncrement()),
+            Math.abs(frame.getVerticalIncrement()));
+    }
+
+    /**
+     Returns the total number of iterations that interior detection has
+     saved so far across every pixel sampled by this kernel.
+     <p/>
+     @return the number of skipped iterations
+     */
+    public long getSkippedIterations()
+    {
+        return skippedIterations.get();
+    }
+
+    @Override
+    public int getOrbitStateSize()
+    {
+        return STATE_SIZE;
+    }
+
+    /**
+     Returns whether a point is in the main cardioid or the period-2 bulb of
+     the Mandelbrot set, both of which are entirely inside the set.
+     <p/>
+     @param cA real component of c
+     @param cB imaginary component of c
+     @return true if c is provably inside
+     */
+    public static boolean inCardioidOrBulb(double cA, double cB)
+    {
+        double b2 = cB * cB;
+        //main cardioid: q(q + (a - 1/4)) <= b^2 / 4, q = (a - 1/4)^2 + b^2
+        double aQuarter = cA - .25;
+        double q = aQuarter * aQuarter + b2;
+        if(q * (q + aQuarter) <= .25 * b2)
+        {
+            return true;
+        }
+        //period-2 bulb: circle of radius 1/4 around -1
+        double aOne = cA + 1;
+        return aOne * aOne + b2 <= .0625;
+    }
+
+    @Override
+    public float sample(int x, int y)
+    {
+        long[] skipped = SKIPPED.get();
+        skipped[0] = 0;
+        float value = sample(x, y, skipped);
+        if(skipped[0] != 0)
+        {
+            skippedIterations.addAndGet(skipped[0]);
+        }
+        return value;
+    }
+
+    //samples a pixel, adding the iterations that interior detection saves
+    //to skipped[0], so callers can add them to the total once per row
+    private float sample(int x, int y, long[] skipped)
+    {
+        final double cA = frame.real(x);      //real component of c
+        final double cB = frame.imaginary(y); //imaginary component of c
+        final int itr = frame.getIterations();
+        final OrbitStore orbits = getOrbits();
+        final int index = y * frame.getWidth() + x;
+
+        if(interiorDetection && inCardioidOrBulb(cA, cB))
+        {
+            skipped[0] += itr;
+            if(orbits != null)
+            {
+                orbits.inside(index);
+            }
+            return IterationBuffer.INSIDE;
+        }
+
+        double zA = cA; //real component of z
+        double zB = cB; //imaginary component of z
+        int start = orbits == null ? 0 : orbits.getResumeDepth(index);
+        if(start > 0)
+        {
+            //continue the orbit from where a lower limit stopped it
+            zA = orbits.getState()[index * STATE_SIZE];
+            zB = orbits.getState()[index * STATE_SIZE + 1];
+        }
+        //the saved point of Brent's cycle detection
+        double savedA = zA;
+        double savedB = zB;
+        int nextSave = start == 0 ? 1 : Integer.highestOneBit(start) << 1;
+        for(int i = start; i < itr; i++)
+        {
+            double zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
+            zB = (2 * zA * zB) + cB;
+            zA = zATemp;
+            if(zA * zA + zB * zB > 4.0)//if escaped
+            {
+//                return new Color(4004*i); //bands of color
+
+                //smooth coloring
+                //these two more iterations reduce the size
+                //of the error term
+                zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
+                zB = (2 * zA * zB) + cB;
+                zA = zATemp;
+                zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
+                zB = (2 * zA * zB) + cB;
+                zA = zATemp;
+
+                float value = PaletteTable.smoothIteration(i, zA * zA + zB * zB);
+                if(orbits != null)
+                {
+                    orbits.escaped(index, i, value);
+                }
+                return value;
+            }
+            if(interiorDetection)
+            {
+                if(Math.abs(zA - savedA) < epsilon && Math.abs(zB - savedB) < epsilon)
+                {
+                    skipped[0] += itr - 1 - i;
+                    if(orbits != null)
+                    {
+                        orbits.inside(index);
+                    }
+                    return IterationBuffer.INSIDE; //periodic orbit
+                }
+                if(i == nextSave)
+                {
+                    savedA = zA;
+                    savedB = zB;
+                    nextSave <<= 1;
+                }
+            }
+        }
+        if(orbits != null)
+        {
+            orbits.getState()[index * STATE_SIZE] = zA;
+            orbits.getState()[index * STATE_SIZE + 1] = zB;
+            orbits.running(index, itr);
+        }
+        return IterationBuffer.INSIDE; //if not escaped
+    }
+
+    @Override
+    public void sampleRow(int y, int[] xs, int count, float[] out)
+    {
+        //the whole row's skipped iterations are added at once, so threads
+        //don't contend for the total once per interior pixel
+        long[] skipped = SKIPPED.get();
+        skipped[0] = 0;
+        if(count < LANES / 2)
+        {
+            //too few pixels, such as the sides of a rectangle, to be worth
+            //setting up the lanes for
+            for(int k = 0; k < count; k++)
+            {
+                out[k] = sample(xs[k], y, skipped);
+            }
+        }
+        else
+        {
+            sampleRow(y, xs, count, out, skipped);
+        }
+        if(skipped[0] != 0)
+        {
+            skippedIterations.addAndGet(skipped[0]);
+        }
+    }
+
+    private void sampleRow(int y, int[] xs, int count, float[] out, long[] skipped)
+    {
+        final OrbitStore orbits = getOrbits();
+        if(orbits != null)
+        {
+            //resumed orbits start at different depths, so they can't
+            //share lanes; they are sampled one at a time
+            int[] fresh = new int[count];
+            int[] slots = new int[count];
+            int freshCount = 0;
+            for(int k = 0; k < count; k++)
+            {
+                if(orbits.getResumeDepth(y * frame.getWidth() + xs[k]) > 0)
+                {
+                    out[k] = sample(xs[k], y, skipped);
+                }
+                else
+                {
+                    fresh[freshCount] = xs[k];
+                    slots[freshCount++] = k;
+                }
+            }
+            if(freshCount < count)
+            {
+                float[] values = new float[freshCount];
+                sampleLanes(y, fresh, freshCount, values, orbits, skipped);
+                for(int k = 0; k < freshCount; k++)
+                {
+                    out[slots[k]] = values[k];
+                }
+                return;
+            }
+        }
+        sampleLanes(y, xs, count, out, orbits, skipped);
+    }
+
+    //iterates fresh orbits LANES at a time
+    private void sampleLanes(int y, int[] xs, int count, float[] out, OrbitStore orbits, long[] skipped)
+    {
+        final int rowStart = y * frame.getWidth();
+        final double cB = frame.imaginary(y); //imaginary component of c
+        final int itr = frame.getIterations();
+        final double[] cA = new double[LANES];
+        final double[] zA = new double[LANES];
+        final double[] zB = new double[LANES];
+        final double[] savedA = new double[LANES];
+        final double[] savedB = new double[LANES];
+        for(int base = 0; base < count; base += LANES)
+        {
+            int lanes = Math.min(LANES, count - base);
+            //bit l is set while lane l is still iterating
+            int active = 0;
+            for(int l = 0; l < lanes; l++)
+            {
+                cA[l] = frame.real(xs[base + l]);
+                if(interiorDetection && inCardioidOrBulb(cA[l], cB))
+                {
+                    skipped[0] += itr;
+                    out[base + l] = IterationBuffer.INSIDE;
+                    if(orbits != null)
+                    {
+                        orbits.inside(rowStart + xs[base + l]);
+                    }
+                    continue;
+                }
+                zA[l] = savedA[l] = cA[l];
+                zB[l] = savedB[l] = cB;
+                active |= 1 << l;
+            }
+            int nextSave = 1;
+            for(int i = 0; i < itr && active != 0; i++)
+            {
+                for(int l = 0; l < lanes; l++)
+                {
+                    if((active & (1 << l)) == 0)
+                    {
+                        continue;
+                    }
+                    double a = zA[l];
+                    double b = zB[l];
+                    double aTemp = (a * a - b * b) + cA[l]; //z = z^2 + c
+                    b = (2 * a * b) + cB;
+                    a = aTemp;
+                    if(a * a + b * b > 4.0)//if escaped
+                    {
+                        //the same two extra iterations as sample
+                        aTemp = (a * a - b * b) + cA[l];
+                        b = (2 * a * b) + cB;
+                        a = aTemp;
+                        aTemp = (a * a - b * b) + cA[l];
+                        b = (2 * a * b) + cB;
+                        a = aTemp;
+                        out[base + l] = PaletteTable.smoothIteration(i, a * a + b * b);
+                        if(orbits != null)
+                        {
+                            orbits.escaped(rowStart + xs[base + l], i, out[base + l]);
+                        }
+                        active &= ~(1 << l);
+                        continue;
+                    }
+                    if(interiorDetection
+                        && Math.abs(a - savedA[l]) < epsilon && Math.abs(b - savedB[l]) < epsilon)
+                    {
+                        skipped[0] += itr - 1 - i;
+                        out[base + l] = IterationBuffer.INSIDE; //periodic orbit
+                        if(orbits != null)
+                        {
+                            orbits.inside(rowStart + xs[base + l]);
+                        }
+                        active &= ~(1 << l);
+                        continue;
+                    }
+                    zA[l] = a;
+                    zB[l] = b;
+                }
+                if(interiorDetection && i == nextSave)
+                {
+                    System.arraycopy(zA, 0, savedA, 0, lanes);
+                    System.arraycopy(zB, 0, savedB, 0, lanes);
+                    nextSave <<= 1;
+                }
+            }
+            for(int l = 0; l < lanes; l++)
+            {
+                if((active & (1 << l)) != 0)
+                {
+                    out[base + l] = IterationBuffer.INSIDE; //if not escaped
+                    if(orbits != null)
+                    {
+                        int index = rowStart + xs[base + l];
+                        orbits.getState()[index * STATE_SIZE] = zA[l];
+                        orbits.getState()[index * STATE_SIZE + 1] = zB[l];
+                        orbits.running(index, itr);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Symmetry getSymmetry()
+    {
+        return Symmetry.CONJUGATE;
+    }
+}
@@ -1,7 +1,6 @@
 package mandelbrot;
 
 
-import mandelbrot.BigComplex;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.math.BigDecimal;
@@ -23,6 +22,9 @@ public class MandelbrotPanel extends JPanel
     private BigDecimal bottom;
 
     private MathContext mc = new MathContext(4, RoundingMode.HALF_EVEN);
+    //reused for every pixel so the iteration loop doesn't allocate
+    private final FixedComplex c = new FixedComplex(64);
+    private final FixedComplex z = new FixedComplex(64);
 
     /**
      * Constructs a MandelbrotPanel to display the mandlebrot
@@ -73,13 +75,14 @@ public class MandelbrotPanel extends JPanel
     {
         BigDecimal a = left.add(BigDecimal.valueOf(x).multiply(horizontalIncrement,mc));
         BigDecimal b = top.add(BigDecimal.valueOf(y).multiply(verticalIncrement,mc));
-        BigComplex c = new BigComplex(a,b);
+        c.set(a,b);
 
-        BigComplex z = c;
+        z.set(c);
         for(int i = 0; i < 32; i++)
         {
-            z = z.multiply(z,mc).add(c,mc); //z = z^2 + c
-            if(z.magnitudeSquared() > 4.0)
+            z.square();
+            z.add(c); //z = z^2 + c
+            if(z.magnitudeSquaredExceeds(4))
             {
                 return Color.white;
             }
@@ -1,12 +1,11 @@
 package mandelbrot;
 
 import java.awt.*;
-import java.awt.event.ComponentEvent;
-import java.awt.event.ComponentListener;
+import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Line2D;
-import java.awt.image.BufferedImage;
-import java.math.BigDecimal;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.*;
 import javax.swing.*;
 import javax.swing.event.MouseInputAdapter;
@@ -31,12 +30,16 @@ import javax.swing.event.MouseInputAdapter;
  */
 public class MandelbrotPanelDouble extends JPanel
 {
+    private static final double LOG10_2 = Math.log10(2);
+
     private GlassPane glassPane;
     private FractalPanel fractalPanel;
     private JPanel infoPanel;
     private JLabel cEquals;
     private JTextField cText;
-    private Stack<double[]> views = new Stack<>();
+    private JLabel iterationsLabel;
+    private JLabel precisionLabel;
+    private Stack<View> views = new Stack<>();
 
     /**
      Constructs a MandelbrotPanel to display the mandlebrot
@@ -54,7 +57,7 @@ public class MandelbrotPanelDouble extends JPanel
     {
         fractalPanel = new FractalPanel();
         fractalPanel.setLayout(new OverlayLayout(fractalPanel));
-        fractalPanel.setView(-5, 2, -2, 2);
+        fractalPanel.setView(View.HOME);
 
         glassPane = new GlassPane();
         glassPane.setOpaque(false);
@@ -63,16 +66,24 @@ public class MandelbrotPanelDouble extends JPanel
         MouseInputAdapter adapter = new MouseInputAdapter()
         {
             private Point dragBoxTopLeft;
+            //true while a ctrl-drag is panning the view
+            private boolean panning;
 
             @Override
             public void mousePressed(MouseEvent e)
             {
                 dragBoxTopLeft = e.getPoint();
+                panning = e.isControlDown() && !e.isShiftDown();
             }
 
             @Override
             public void mouseDragged(MouseEvent e)
             {
+                if(panning)
+                {
+                    fractalPanel.setDragOffset(dragBoxTopLeft.x - e.getX(), dragBoxTopLeft.y - e.getY());
+                    return;
+                }
                 glassPane.getRect().setBounds(dragBoxTopLeft.x, dragBoxTopLeft.y, e.getX()
                     - dragBoxTopLeft.x, e.getY() - dragBoxTopLeft.y);
                 glassPane.repaint();
@@ -81,6 +92,17 @@ public class MandelbrotPanelDouble extends JPanel
             @Override
             public void mouseReleased(MouseEvent e)
             {
+                if(panning)
+                {
+                    panning = false;
+                    fractalPanel.setDragOffset(0, 0);
+                    if(!e.getPoint().equals(dragBoxTopLeft))
+                    {
+                        views.push(fractalPanel.getView());
+                        fractalPanel.pan(dragBoxTopLeft.x - e.getX(), dragBoxTopLeft.y - e.getY());
+                    }
+                    return;
+                }
                 glassPane.getRect().setBounds(0, 0, 0, 0);
                 Point dragBoxBottomRight = e.getPoint();
 
@@ -92,12 +114,11 @@ public class MandelbrotPanelDouble extends JPanel
                 {
                     return;
                 }
-                double[] topLeftCorner = fractalPanel.pixelToCoord(dragBoxTopLeft.x, dragBoxTopLeft.y);
-                double[] bottomRightCorner = fractalPanel.pixelToCoord(e.getX(), e.getY());
-                views.push(fractalPanel.getView());
-                fractalPanel.setView(
-                    topLeftCorner[0], bottomRightCorner[0],
-                    topLeftCorner[1], bottomRightCorner[1]);
+                View oldView = fractalPanel.getView();
+                views.push(oldView);
+                fractalPanel.setView(oldView.zoomToPixels(
+                    dragBoxTopLeft.x, dragBoxTopLeft.y, e.getX(), e.getY(),
+                    fractalPanel.getWidth(), fractalPanel.getHeight()));
                 glassPane.repaint();
             }
 
@@ -109,8 +130,7 @@ public class MandelbrotPanelDouble extends JPanel
                 {
                     return;
                 }
-                double[] cpx = fractalPanel.pixelToCoord(e.getX(), e.getY());
-                cText.setText(new BigComplex(BigDecimal.valueOf(Double.valueOf(cpx[0])), BigDecimal.valueOf(Double.valueOf(cpx[1]))).toString());
+                cText.setText(fractalPanel.pixelToExactCoord(e.getX(), e.getY()).toString());
             }
 
             @Override
@@ -122,7 +142,7 @@ public class MandelbrotPanelDouble extends JPanel
                     {
                         //zoom all the way out
                         views.clear();
-                        fractalPanel.setView(-5.0, 2.0, -2.0, 2.0);
+                        fractalPanel.setView(View.HOME);
 //                        dragBoxTopLeft.setLocation(0, 0);
                     }
                     else //if shift-leftclick
@@ -138,14 +158,8 @@ public class MandelbrotPanelDouble extends JPanel
                 else //if leftclick only
                 {
                     //zoom 2x on point of click
-                    double[] oldView = fractalPanel.getView();
-                    double[] targetCoords = fractalPanel.pixelToCoord(e.getX(), e.getY());
-                    double newLeft = (oldView[0] + targetCoords[0]) / 2.0;
-                    double newRight = (oldView[1] + targetCoords[0]) / 2.0;
-                    double newTop = (oldView[2] + targetCoords[1]) / 2.0;
-                    double newBottom = (oldView[3] + targetCoords[1]) / 2.0;
                     views.push(fractalPanel.getView());
-                    fractalPanel.setView(newLeft, newRight, newTop, newBottom);
+                    fractalPanel.zoomIn(e.getX(), e.getY());
                 }
                 fractalPanel.repaint();
             }
@@ -155,6 +169,27 @@ public class MandelbrotPanelDouble extends JPanel
 
         fractalPanel.add(glassPane);
         add(fractalPanel, BorderLayout.CENTER);
+
+        //the arrow keys pan by an eighth of the panel
+        addPanKey("LEFT", -1, 0);
+        addPanKey("RIGHT", 1, 0);
+        addPanKey("UP", 0, -1);
+        addPanKey("DOWN", 0, 1);
+    }
+
+    private void addPanKey(String key, final int directionX, final int directionY)
+    {
+        String name = "pan " + key;
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(key), name);
+        getActionMap().put(name, new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                fractalPanel.pan(directionX * Math.max(1, fractalPanel.getWidth() / 8),
+                    directionY * Math.max(1, fractalPanel.getHeight() / 8));
+            }
+        });
     }
 
     private void setUpInfoPanel()
@@ -165,8 +200,31 @@ public class MandelbrotPanelDouble extends JPanel
         cText = new JTextField(27);
         cText.setEditable(false);
 
+        iterationsLabel = new JLabel("Iterations: " + fractalPanel.getIterations());
+        fractalPanel.addPropertyChangeListener("iterations", new PropertyChangeListener()
+        {
+            @Override
+            public void propertyChange(PropertyChangeEvent e)
+            {
+                iterationsLabel.setText("Iterations: " + (fractalPanel.isAutomaticIterations()
+                    ? fractalPanel.getIterationController() : e.getNewValue()));
+            }
+        });
+
+        precisionLabel = new JLabel("Precision: " + fractalPanel.getPrecision());
+        fractalPanel.addPropertyChangeListener("precision", new PropertyChangeListener()
+        {
+            @Override
+            public void propertyChange(PropertyChangeEvent e)
+            {
+                precisionLabel.setText("Precision: " + e.getNewValue());
+            }
+        });
+
         infoPanel.add(cEquals);
         infoPanel.add(cText);
+        infoPanel.add(iterationsLabel);
+        infoPanel.add(precisionLabel);
 
         add(infoPanel, BorderLayout.SOUTH);
     }
@@ -209,131 +267,274 @@ public class MandelbrotPanelDouble extends JPanel
      on which the fractal appears. The GlassPane goes on
      top of this.
      */
-    protected class FractalPanel extends JPanel
+    protected class FractalPanel extends FractalCanvas
     {
-        private double left;
-        private double top;
-        private double right;
-        private double bottom;
-        private int itr = 200;
-        private boolean needsRepaint = true;
-        //for efficiency, store the generated fractal in this variable
-        //as an image so you don't have to regenerate everytime you
-        //drag the zoom box.
-        private BufferedImage storedImage;
-        //these are only instance variables for efficiency purposes.
-        //they are dependant upon the preceding variables.
-        private double pixelsW;
-        private double pixelsH;
-        private double horizontalIncrement;
-        private double verticalIncrement;
+        private View view;
+        private boolean interiorDetection = true;
+        private boolean automaticPrecision = true;
+        private boolean automaticIterations = true;
+        private final IterationController iterationController = new IterationController();
+        //the precision chosen by the user, or by forView for the
+        //most recent frame
+        private Precision precision = Precision.DOUBLE;
+        //the kernel of the most recent render, kept for its statistics
+        private EscapeKernel kernel;
 
         /**
          Constructs a FractalPanel.
          */
         public FractalPanel()
         {
-            super();
-            addComponentListener(new ComponentListener()
+            super(200, "Mandelbrot renderer");
+        }
+
+        @Override
+        protected FrameFactory createFrameFactory(final int width, final int height)
+        {
+            final View view = this.view;
+            final boolean interiorDetection = this.interiorDetection;
+            final boolean automaticIterations = this.automaticIterations;
+            final boolean automaticPrecision = this.automaticPrecision;
+            if(automaticPrecision)
+            {
+                Precision old = precision;
+                precision = precisionFor(new RenderFrame(width, height, view, 1));
+                firePropertyChange("precision", old, precision);
+            }
+            final Precision precision = this.precision;
+            final double threshold = iterationController.getThreshold();
+            return new FrameFactory()
             {
                 @Override
-                public void componentResized(ComponentEvent e)
+                public int chooseIterations(int itr, final RenderService.Ticket ticket)
                 {
-                    needsRepaint = true;
-                    repaint();
-//                    System.out.println("resized");
+                    if(!automaticIterations)
+                    {
+                        return itr;
+                    }
+                    //the pilot uses the precision that the frame itself will
+                    return iterationController.choose(new IterationController.KernelFactory()
+                    {
+                        @Override
+                        public EscapeKernel createKernel(int width, int height, int itr)
+                        {
+                            return newKernel(new RenderFrame(width, height, view, itr),
+                                precision, interiorDetection);
+                        }
+
+                        @Override
+                        public boolean isCancelled()
+                        {
+                            return ticket.isCancelled();
+                        }
+                    }, width, height, (View.HOME.getScale() - view.getScale()) * LOG10_2);
                 }
 
                 @Override
-                public void componentMoved(ComponentEvent e)
+                public RenderFrame createFrame(int itr)
                 {
+                    return new RenderFrame(width, height, view, itr);
                 }
 
                 @Override
-                public void componentShown(ComponentEvent e)
+                public EscapeKernel createKernel(RenderFrame frame)
                 {
+                    return newKernel(frame, precision, interiorDetection);
                 }
 
                 @Override
-                public void componentHidden(ComponentEvent e)
+                public Object cacheKey(int itr)
                 {
+                    //automatic precision is a function of the view and size,
+                    //and so are automatic iterations, given the threshold
+                    return Arrays.asList(view, width, height, automaticIterations ? null : itr,
+                        automaticIterations ? threshold : null, automaticPrecision ? null : precision,
+                        interiorDetection);
                 }
-            });
+            };
+        }
+
+        @Override
+        protected void frameStarted(RenderFrame frame, EscapeKernel kernel)
+        {
+            this.kernel = kernel;
+            if(automaticIterations)
+            {
+                firePropertyChange("iterations", null, frame.getIterations());
+            }
+        }
+
+        //the cheapest precision that resolves a frame of the view
+        private Precision precisionFor(RenderFrame frame)
+        {
+            View view = frame.getView();
+            double magnitude = Math.max(
+                Math.abs(view.getCenterA().doubleValue()) + Math.abs(view.getWidth()) / 2,
+                Math.abs(view.getCenterB().doubleValue()) + Math.abs(view.getHeight()) / 2);
+            double spacing = Math.min(
+                Math.abs(frame.getHorizontalIncrement()),
+                Math.abs(frame.getVerticalIncrement()));
+            return Precision.forView(magnitude, spacing);
+        }
+
+        //a kernel for a frame, without touching the panel
+        private EscapeKernel newKernel(RenderFrame frame, Precision precision, boolean interiorDetection)
+        {
+            View view = frame.getView();
+            switch(precision)
+            {
+                case DOUBLE_DOUBLE:
+                    return new DoubleDoubleKernel(frame,
+                        view.getCenterA(), view.getCenterB(), interiorDetection);
+                case PERTURBATION:
+                    return new PerturbationKernel(frame,
+                        view.getCenterA(), view.getCenterB());
+                default:
+                    return new MandelbrotKernel(frame, interiorDetection);
+            }
         }
 
         /**
-         Paints a portion of the Mandelbrot set on the panel.
+         Sets the iteration limit, turning off automatic iterations, and
+         renders the view again.
          <p/>
-         @param g
+         @param itr the maximum number of iterations per pixel
          */
         @Override
-        public void paintComponent(Graphics g)
+        public void setIterations(int itr)
         {
-            if(needsRepaint)
+            automaticIterations = false;
+            super.setIterations(itr);
+            firePropertyChange("iterations", null, itr);
+        }
+
+        /**
+         Sets whether the iteration limit is chosen per frame by an
+         {@link IterationController}, and renders the view again.
+         <p/>
+         @param automaticIterations true to choose the limit per frame
+         */
+        public void setAutomaticIterations(boolean automaticIterations)
+        {
+            this.automaticIterations = automaticIterations;
+            invalidateIterations();
+            if(!automaticIterations)
             {
-                storedImage = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-                Graphics imageG = storedImage.getGraphics();
-                pixelsW = getWidth();
-                pixelsH = getHeight();
-                horizontalIncrement = (right - left) / pixelsW;
-                verticalIncrement = (bottom - top) / pixelsH;
-                for(int x = 0; x < pixelsW; x++)
-                {
-                    for(int y = 0; y < pixelsH; y++)
-                    {
-                        imageG.setColor(mandlebrotColor(x, y));
-                        imageG.drawRect(x, y, 0, 0);
-                    }
-                    needsRepaint = false;
-                }
+                firePropertyChange("iterations", null, getIterations());
             }
-            g.drawImage(storedImage, 0, 0, null);
+        }
 
+        /**
+         Returns whether the iteration limit is chosen per frame
+         <p/>
+         @return true if automatic iterations is on
+         */
+        public boolean isAutomaticIterations()
+        {
+            return automaticIterations;
         }
 
         /**
-         Determines how to Color a pixel of the current view of the Mandelbrot
-         set.
+         Returns the controller that chooses the iteration limit, which
+         reports the limit it chose last and what its pilot pass cost
          <p/>
-         @param x the x coordinate of a pixel on the screen
-         @param y the y coordinate of a pixel on the screen
-         @return the Color of a pixel on the screen
+         @return the iteration controller
          */
-        private Color mandlebrotColor(int x, int y)
+        public IterationController getIterationController()
         {
-            final double cA = left + x * horizontalIncrement; //real component of c
-            final double cB = top + y * verticalIncrement;    //imaginary component of c
+            return iterationController;
+        }
 
-            double zA = cA; //real component of z
-            double zB = cB; //imaginary component of z
-            for(int i = 0; i < itr; i++)
+        /**
+         Sets the arithmetic used to compute the Mandelbrot set, turning off
+         automatic precision, and renders the view again.
+         <p/>
+         @param precision the new precision
+         */
+        public void setPrecision(Precision precision)
+        {
+            Precision old = this.precision;
+            this.precision = precision;
+            automaticPrecision = false;
+            firePropertyChange("precision", old, precision);
+            invalidateFrame();
+        }
+
+        /**
+         Returns the arithmetic used to compute the Mandelbrot set. With
+         automatic precision, this is the precision chosen for the most
+         recent frame.
+         <p/>
+         @return the precision
+         */
+        public Precision getPrecision()
+        {
+            return precision;
+        }
+
+        /**
+         Sets whether every frame is computed with the cheapest precision
+         that resolves its pixels, see {@link Precision#forView(double, double)},
+         and renders the view again. Automatic precision is on by default.
+         <p/>
+         @param automaticPrecision true to choose the precision per frame
+         */
+        public void setAutomaticPrecision(boolean automaticPrecision)
+        {
+            this.automaticPrecision = automaticPrecision;
+            invalidateFrame();
+        }
+
+        /**
+         Returns whether the precision is chosen per frame
+         <p/>
+         @return true if automatic precision is on
+         */
+        public boolean isAutomaticPrecision()
+        {
+            return automaticPrecision;
+        }
+
+        /**
+         Sets whether interior pixels are detected early by the cardioid,
+         bulb and periodicity checks, and renders the view again.
+         <p/>
+         @param interiorDetection true to skip iterating interior pixels
+         @see MandelbrotKernel
+         */
+        public void setInteriorDetection(boolean interiorDetection)
+        {
+            this.interiorDetection = interiorDetection;
+            invalidateFrame();
+        }
+
+        /**
+         Returns whether interior pixels are detected early
+         <p/>
+         @return true if interior detection is on
+         */
+        public boolean isInteriorDetection()
+        {
+            return interiorDetection;
+        }
+
+        /**
+         Returns how many iterations interior detection has saved so far in
+         the most recent render.
+         <p/>
+         @return the number of skipped iterations
+         */
+        public long getSkippedIterations()
+        {
+            if(kernel instanceof MandelbrotKernel)
             {
-                double zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
-                zB = (2 * zA * zB) + cB;
-                zA = zATemp;
-                if(zA * zA + zB * zB > 4.0)//if escaped
-                {
-//                    return new Color(4004*i); //bands of color
-
-                    //smooth coloring
-                    //these two more iterations reduce the size
-                    //of the error term
-                    zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
-                    zB = (2 * zA * zB) + cB;
-                    zA = zATemp;
-                    zATemp = (zA * zA - zB * zB) + cA; //z = z^2 + c
-                    zB = (2 * zA * zB) + cB;
-                    zA = zATemp;
-
-                    double magnitude = Math.sqrt(zA * zA + zB * zB);
-                    float fraction = (float) (i
-                        - (Math.log10(Math.log10(magnitude))) / Math.log10(2.0))
-                        / itr;
-
-                    return Color.getHSBColor(.6f + 10f * fraction, .6f, 1);
-                }
+                return ((MandelbrotKernel) kernel).getSkippedIterations();
+            }
+            if(kernel instanceof DoubleDoubleKernel)
+            {
+                return ((DoubleDoubleKernel) kernel).getSkippedIterations();
             }
-            return Color.black; //if not escaped
+            return 0;
         }
 
         /**
@@ -346,15 +547,31 @@ public class MandelbrotPanelDouble extends JPanel
          */
         public double[] pixelToCoord(double x, double y)
         {
+            BigComplex c = pixelToExactCoord(x, y);
             return new double[]
                 {
-                    left + x * horizontalIncrement,
-                    top + y * verticalIncrement,
+                    c.a().doubleValue(),
+                    c.b().doubleValue(),
                 };
         }
 
         /**
-         Sets the view of the Mandelbrot set.
+         Changes the coordinates of a pixel on the screen to an imaginary
+         number based on the current view of the Mandelbrot set, with as
+         many digits as the view needs.
+         <p/>
+         @param x x coordinate of the pixel
+         @param y y coordinate of the pixel
+         @return the point at the pixel
+         */
+        public BigComplex pixelToExactCoord(double x, double y)
+        {
+            return view.pixelToCoord(x, y, getWidth(), getHeight());
+        }
+
+        /**
+         Sets the view of the Mandelbrot set. Returns immediately; the new
+         view is rendered in the background.
          <p/>
          @param left   the lowest number on the real axis
          @param right  the highest number on the real axis <br/>
@@ -365,38 +582,79 @@ public class MandelbrotPanelDouble extends JPanel
          */
         public void setView(double left, double right, double top, double bottom)
         {
-            this.left = left;
-            this.right = right;
-            this.top = top;
-            this.bottom = bottom;
-            needsRepaint = true;
+            setView(View.fromBounds(left, right, top, bottom));
         }
 
         /**
-         Sets the view of the Mandelbrot set based on an array that has the
-         bounds of the view.
+         Sets the view of the Mandelbrot set. Returns immediately; the new
+         view is rendered in the background.
          <p/>
-         @param view a double[] of length 4 of the form <br/>
-                     <code>{left,right,top,bottom}</code>
-         @see MandelbrotPanelDouble.setView(double,double,double,double)
+         @param view the new view
          */
-        public void setView(double[] view)
+        public void setView(View view)
         {
-            setView(view[0], view[1], view[2], view[3]);
+            this.view = view;
+            invalidateFrame();
+        }
+
+        /**
+         Zooms in 2x toward a pixel. The new view is snapped to the pixel
+         lattice, so the clicked point may move by up to half a pixel, and
+         every other pixel of every other row of the new view is a pixel of
+         the current one, which is reused instead of being computed again.
+         <p/>
+         @param x x coordinate of the pixel
+         @param y y coordinate of the pixel
+         */
+        public void zoomIn(int x, int y)
+        {
+            //keeping (x, y) fixed puts the new left edge halfway to it
+            int originX = x / 2;
+            int originY = y / 2;
+            view = view.zoomToPixels(originX, originY,
+                originX + getWidth() / 2.0, originY + getHeight() / 2.0, getWidth(), getHeight());
+            invalidateFrame(originX, originY, 2);
+        }
+
+        /**
+         Moves the view by a whole number of pixels, keeping its scale. The
+         pixels that stay on screen are reused, and only the strips that
+         come into view are computed.
+         <p/>
+         @param dx how many pixels to move right
+         @param dy how many pixels to move down
+         */
+        public void pan(int dx, int dy)
+        {
+            view = view.zoomToPixels(dx, dy, dx + getWidth(), dy + getHeight(), getWidth(), getHeight());
+            invalidateFrame(dx, dy, 1);
+        }
+
+        /**
+         Keeps the scale and the top left corner of the view when the panel
+         changes size, so the panel shows more or less of the plane and the
+         pixels that stay on screen are reused.
+         */
+        @Override
+        protected void resized(int oldWidth, int oldHeight)
+        {
+            if(oldWidth <= 0 || oldHeight <= 0 || getWidth() <= 0 || getHeight() <= 0)
+            {
+                super.resized(oldWidth, oldHeight);
+                return;
+            }
+            view = view.zoomToPixels(0, 0, getWidth(), getHeight(), oldWidth, oldHeight);
+            invalidateFrame(0, 0, 1);
         }
 
         /**
          Gets the view of the Mandelbrot set
          <p/>
-         @return a double[] of length 4 of the form <br/>
-                 {left,right,top,bottom}
+         @return the view
          */
-        public double[] getView()
+        public View getView()
         {
-            return new double[]
-                {
-                    left, right, top, bottom
-                };
+            return view;
         }
     }
 
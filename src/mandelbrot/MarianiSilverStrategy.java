@@ -0,0 +1,279 @@
+package mandelbrot;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ Samples a frame with the Mariani-Silver algorithm: the border of a
+ rectangle is sampled, and if every border pixel has the same escape count,
+ the inside of the rectangle is filled without being sampled. Otherwise the
+ rectangle is split into four and each quarter is handled the same way, in
+ parallel on the TiledRenderer pool. Rectangles smaller than a few pixels
+ are sampled pixel by pixel.
+ <p/>
+ Because the Mandelbrot set is connected, a rectangle whose border is inside
+ the set is entirely inside it, so filling interior rectangles is safe in
+ practice. A rectangle whose border escaped within a single iteration band
+ has its smooth values interpolated from the border, which is close but not
+ exact; the exact variant never fills escaped rectangles and only saves
+ work on the interior. Use {@link RenderDiff} to measure the difference
+ against sampling every pixel.
+ <p/>
+ @author Joey Bloom
+ */
+public class MarianiSilverStrategy extends RenderStrategy
+{
+    //rectangles with a side at most this long are sampled pixel by pixel
+    private static final int MIN_SIDE = 6;
+    //rectangles with fewer pixels than this are split without forking
+    private static final int MIN_FORK_AREA = 64 * 64;
+
+    private final boolean exact;
+
+    /**
+     Constructs a MarianiSilverStrategy that fills escaped rectangles as well
+     as interior ones.
+     */
+    public MarianiSilverStrategy()
+    {
+        this(false);
+    }
+
+    /**
+     Constructs a MarianiSilverStrategy.
+     <p/>
+     @param exact true to only fill rectangles whose border is inside the
+                  set, so that every escaped pixel is sampled
+     */
+    public MarianiSilverStrategy(boolean exact)
+    {
+        super(exact ? "Mariani-Silver (exact)" : "Mariani-Silver");
+        this.exact = exact;
+    }
+
+    /**
+     Returns whether this strategy only fills interior rectangles
+     @return true if every escaped pixel is sampled
+     */
+    public boolean isExact()
+    {
+        return exact;
+    }
+
+    @Override
+    public void render(EscapeKernel kernel, IterationBuffer buffer,
+        FramePainter painter, RenderService.Ticket ticket)
+    {
+        if(buffer.getWidth() == 0 || buffer.getHeight() == 0)
+        {
+            return;
+        }
+        TiledRenderer.getPool().invoke(new Rectangle(kernel, buffer, painter, ticket,
+            0, 0, buffer.getWidth() - 1, buffer.getHeight() - 1));
+        if(!ticket.isCancelled())
+        {
+            painter.flush();
+        }
+    }
+
+    //the rectangle [x0,x1] x [y0,y1], border included; tasks are never
+    //serialized
+    @SuppressWarnings("serial")
+    private class Rectangle extends RecursiveAction
+    {
+        private final EscapeKernel kernel;
+        private final IterationBuffer buffer;
+        private final FramePainter painter;
+        private final RenderService.Ticket ticket;
+        private final int x0;
+        private final int y0;
+        private final int x1;
+        private final int y1;
+
+        Rectangle(EscapeKernel kernel, IterationBuffer buffer, FramePainter painter,
+            RenderService.Ticket ticket, int x0, int y0, int x1, int y1)
+        {
+            this.kernel = kernel;
+            this.buffer = buffer;
+            this.painter = painter;
+            this.ticket = ticket;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(ticket.isCancelled())
+            {
+                return;
+            }
+            if(x1 - x0 <= MIN_SIDE || y1 - y0 <= MIN_SIDE)
+            {
+                sampleAll();
+                finish();
+                return;
+            }
+
+            //sample the border, a row at a time, and find the range of
+            //values on it
+            sampleBorder();
+            float[] smooth = buffer.getSmooth();
+            int width = buffer.getWidth();
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for(int x = x0; x <= x1; x++)
+            {
+                float top = smooth[y0 * width + x];
+                float bottom = smooth[y1 * width + x];
+                min = Math.min(min, Math.min(top, bottom));
+                max = Math.max(max, Math.max(top, bottom));
+            }
+            for(int y = y0 + 1; y < y1; y++)
+            {
+                float left = smooth[y * width + x0];
+                float right = smooth[y * width + x1];
+                min = Math.min(min, Math.min(left, right));
+                max = Math.max(max, Math.max(left, right));
+            }
+
+            if(max == IterationBuffer.INSIDE)
+            {
+                fill(IterationBuffer.INSIDE);
+                finish();
+            }
+            else if(!exact && min != IterationBuffer.INSIDE && max - min < 1)
+            {
+                interpolate();
+                finish();
+            }
+            else
+            {
+                int midX = (x0 + x1) >>> 1;
+                int midY = (y0 + y1) >>> 1;
+                Rectangle[] quarters =
+                {
+                    new Rectangle(kernel, buffer, painter, ticket, x0, y0, midX, midY),
+                    new Rectangle(kernel, buffer, painter, ticket, midX, y0, x1, midY),
+                    new Rectangle(kernel, buffer, painter, ticket, x0, midY, midX, y1),
+                    new Rectangle(kernel, buffer, painter, ticket, midX, midY, x1, y1),
+                };
+                if((x1 - x0) * (y1 - y0) < MIN_FORK_AREA)
+                {
+                    for(Rectangle quarter : quarters)
+                    {
+                        quarter.compute();
+                    }
+                }
+                else
+                {
+                    invokeAll(quarters);
+                }
+            }
+        }
+
+        //samples every pixel of the border that doesn't have a value yet;
+        //neighbouring rectangles share their borders, so both may sample
+        //a pixel at once, which only wastes a little work
+        private void sampleBorder()
+        {
+            int[] xs = new int[x1 - x0 + 1];
+            float[] values = new float[x1 - x0 + 1];
+            sampleRow(y0, 1, xs, values);
+            for(int y = y0 + 1; y < y1; y++)
+            {
+                sampleRow(y, x1 - x0, xs, values);
+            }
+            sampleRow(y1, 1, xs, values);
+        }
+
+        //samples every pixel of the rectangle that doesn't have a
+        //value yet, a row at a time
+        private void sampleAll()
+        {
+            int[] xs = new int[x1 - x0 + 1];
+            float[] values = new float[x1 - x0 + 1];
+            for(int y = y0; y <= y1; y++)
+            {
+                sampleRow(y, 1, xs, values);
+            }
+        }
+
+        //samples every step-th pixel of row y from x0 to x1 that doesn't
+        //have a value yet, in one call to the kernel
+        private void sampleRow(int y, int step, int[] xs, float[] values)
+        {
+            float[] smooth = buffer.getSmooth();
+            int width = buffer.getWidth();
+            int count = 0;
+            for(int x = x0; x <= x1; x += step)
+            {
+                if(IterationBuffer.isUnknown(smooth[y * width + x]))
+                {
+                    xs[count++] = x;
+                }
+            }
+            if(count == 0)
+            {
+                return;
+            }
+            kernel.sampleRow(y, xs, count, values);
+            for(int k = 0; k < count; k++)
+            {
+                smooth[y * width + xs[k]] = values[k];
+            }
+        }
+
+        //sets every pixel inside the border to value
+        private void fill(float value)
+        {
+            float[] smooth = buffer.getSmooth();
+            int width = buffer.getWidth();
+            for(int y = y0 + 1; y < y1; y++)
+            {
+                for(int i = y * width + x0 + 1; i < y * width + x1; i++)
+                {
+                    if(IterationBuffer.isUnknown(smooth[i]))
+                    {
+                        smooth[i] = value;
+                    }
+                }
+            }
+        }
+
+        //sets every pixel inside the border to the average of the
+        //linear interpolations between the borders across its row
+        //and down its column
+        private void interpolate()
+        {
+            float[] smooth = buffer.getSmooth();
+            int width = buffer.getWidth();
+            float w = x1 - x0;
+            float h = y1 - y0;
+            for(int y = y0 + 1; y < y1; y++)
+            {
+                float left = smooth[y * width + x0];
+                float right = smooth[y * width + x1];
+                float v = (y - y0) / h;
+                for(int x = x0 + 1; x < x1; x++)
+                {
+                    int i = y * width + x;
+                    if(IterationBuffer.isUnknown(smooth[i]))
+                    {
+                        float u = (x - x0) / w;
+                        float top = smooth[y0 * width + x];
+                        float bottom = smooth[y1 * width + x];
+                        smooth[i] = .5f * (left + u * (right - left) + top + v * (bottom - top));
+                    }
+                }
+            }
+        }
+
+        private void finish()
+        {
+            painter.paint(x0, y0, x1 + 1, y1 + 1);
+            ticket.progress();
+        }
+    }
+}
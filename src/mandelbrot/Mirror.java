@@ -0,0 +1,368 @@
+package mandelbrot;
+
+import java.awt.Component;
+import java.math.BigDecimal;
+
+/**
+ Renders a frame of a symmetric fractal by computing only the rows that
+ aren't mirror images of other rows in the frame, and copying the rest.
+ <p/>
+ The frame is mirrored when its axis of symmetry falls exactly on a row, or
+ exactly halfway between two rows, so that every mirrored pixel samples the
+ same point as the pixel it is copied from, up to rounding, and no seams
+ show. That is decided from the exact center and size of the frame's view,
+ not its edges, which are rounded to the view's precision and would hardly
+ ever line up with the axis in deep views. The rows computed are a
+ band [firstRow, lastRow) across the whole frame, which the strategy
+ renders as a frame of its own through {@link #band(EscapeKernel)}, so any
+ {@link RenderStrategy} can be used. For {@link Symmetry#ROTATIONAL}
+ frames, the columns are mirrored about the imaginary axis too; pixels
+ whose mirror image falls outside the frame are sampled afterwards by
+ {@link #finish(IterationBuffer, IterationBuffer, EscapeKernel, FramePainter)}.
+ <p/>
+ For the home views, where the axis is in the middle, this computes half of
+ the frame.
+ <p/>
+ @author Joey Bloom
+ */
+public class Mirror
+{
+    private final TiledRenderer renderer = new TiledRenderer();
+    private final Symmetry symmetry;
+    private final int width;
+    private final int height;
+    //row y is the mirror image of row rows - y, and, for rotational
+    //symmetry, column x of column columns - x
+    private final int rows;
+    private final int columns;
+    private final int firstRow;
+    private final int lastRow;
+
+    private Mirror(Symmetry symmetry, int width, int height, int rows, int columns)
+    {
+        this.symmetry = symmetry;
+        this.width = width;
+        this.height = height;
+        this.rows = rows;
+        this.columns = columns;
+        if(rows >= height - 1)
+        {
+            //the axis is in the lower half, so compute the top half
+            firstRow = 0;
+            lastRow = rows / 2 + 1;
+        }
+        else
+        {
+            firstRow = (rows + 1) / 2;
+            lastRow = height;
+        }
+    }
+
+    /**
+     Returns how the frame of a kernel can be mirrored.
+     <p/>
+     @param kernel the kernel of the frame
+     @return the mirror, or null if the fractal isn't symmetric or the
+             frame's pixels don't line up with its axis of symmetry
+     */
+    public static Mirror of(EscapeKernel kernel)
+    {
+        Symmetry symmetry = kernel.getSymmetry();
+        RenderFrame frame = kernel.getFrame();
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        if(symmetry == Symmetry.NONE || height < 2)
+        {
+            return null;
+        }
+        View view = frame.getView();
+        int rows = twiceAxis(view.getCenterB(), view.getExactHeight(), height);
+        //an axis on the first or last row leaves nothing to mirror
+        if(rows <= 0 || rows >= 2 * (height - 1))
+        {
+            return null;
+        }
+        int columns = 0;
+        if(symmetry == Symmetry.ROTATIONAL)
+        {
+            columns = twiceAxis(view.getCenterA(), view.getExactWidth(), width);
+            //unless most columns have a mirror image, most of the copied
+            //rows would have to be sampled anyway
+            if(columns < width / 2 || columns > 2 * (width - 1) - width / 2)
+            {
+                return null;
+            }
+        }
+        return new Mirror(symmetry, width, height, rows, columns);
+    }
+
+    //twice the pixel position of 0 on an axis centered on center spanning
+    //length over pixels, or -1 if it isn't an integer or outside an int.
+    //The start of the axis is center - length / 2, so twice the position is
+    //(length - 2 center) pixels / length, all of it exact
+    private static int twiceAxis(BigDecimal center, BigDecimal length, int pixels)
+    {
+        BigDecimal[] position = length.subtract(center.add(center)).multiply(BigDecimal.valueOf(pixels))
+            .divideAndRemainder(length);
+        if(position[1].signum() != 0 || position[0].abs().compareTo(BigDecimal.valueOf(Integer.MAX_VALUE)) > 0)
+        {
+            return -1;
+        }
+        return position[0].intValue();
+    }
+
+    /**
+     Returns the first row that is computed
+     @return the row, inclusive
+     */
+    public int getFirstRow()
+    {
+        return firstRow;
+    }
+
+    /**
+     Returns the row after the last row that is computed
+     @return the row, exclusive
+     */
+    public int getLastRow()
+    {
+        return lastRow;
+    }
+
+    /**
+     Returns whether a pixel of the frame is copied from its mirror image
+     rather than computed.
+     <p/>
+     @param x the x coordinate of the pixel
+     @param y the y coordinate of the pixel
+     @return true if the pixel is copied
+     */
+    public boolean isCopied(int x, int y)
+    {
+        return (y < firstRow || y >= lastRow) && sourceColumn(x) >= 0;
+    }
+
+    /**
+     Returns the row that a copied pixel's row is the mirror image of
+     @param y the row of the pixel
+     @return the row it is copied from
+     */
+    public int sourceRow(int y)
+    {
+        return rows - y;
+    }
+
+    /**
+     Returns a kernel that samples the computed rows as a frame of their
+     own: pixel (x, y) of the band is pixel (x, firstRow + y) of the frame.
+     Orbits are recorded in the frame's store.
+     <p/>
+     @param kernel the kernel of the whole frame
+     @return the kernel of the band
+     */
+    public EscapeKernel band(EscapeKernel kernel)
+    {
+        return new BandKernel(kernel, firstRow, lastRow);
+    }
+
+    /**
+     Returns a buffer for the computed rows, holding whatever the buffer of
+     the whole frame already knows about them.
+     <p/>
+     @param buffer the buffer of the whole frame
+     @return the buffer of the band
+     */
+    public IterationBuffer band(IterationBuffer buffer)
+    {
+        IterationBuffer band = new IterationBuffer(width, lastRow - firstRow);
+        System.arraycopy(buffer.getSmooth(), firstRow * width, band.getSmooth(), 0, band.getSmooth().length);
+        return band;
+    }
+
+    /**
+     Returns a painter for the band, that paints it into the pixels of the
+     whole frame, along with its mirror image.
+     <p/>
+     @param band      the buffer of the band
+     @param pixels    the packed RGB pixels of the whole frame
+     @param table     maps values to colors
+     @param component shows the image
+     @return the painter
+     */
+    public FramePainter painter(IterationBuffer band, int[] pixels, PaletteTable table, Component component)
+    {
+        return new MirroringPainter(band, pixels, table, component);
+    }
+
+    /**
+     Copies a finished band into the buffer of the whole frame, mirrors it,
+     samples the pixels whose mirror image isn't in the frame, and paints
+     the mirrored rows.
+     <p/>
+     @param band    the finished band
+     @param buffer  the buffer of the whole frame
+     @param kernel  the kernel of the whole frame
+     @param painter paints the buffer of the whole frame
+     */
+    public void finish(IterationBuffer band, IterationBuffer buffer, final EscapeKernel kernel, FramePainter painter)
+    {
+        final float[] smooth = buffer.getSmooth();
+        final int mirroredTop = firstRow > 0 ? 0 : lastRow;
+        int mirroredBottom = firstRow > 0 ? firstRow : height;
+        System.arraycopy(band.getSmooth(), 0, smooth, firstRow * width, band.getSmooth().length);
+        for(int y = mirroredTop; y < mirroredBottom; y++)
+        {
+            for(int x = 0; x < width; x++)
+            {
+                int source = sourceColumn(x);
+                smooth[y * width + x] = source < 0 ? IterationBuffer.UNKNOWN
+                    : smooth[(rows - y) * width + source];
+            }
+        }
+        if(symmetry == Symmetry.ROTATIONAL)
+        {
+            //the columns off the edge of the mirror image
+            final int left = columns < width - 1 ? columns + 1 : 0;
+            int right = columns < width - 1 ? width : columns - width + 1;
+            renderer.render(right - left, mirroredBottom - mirroredTop, new TiledRenderer.TileTask()
+            {
+                @Override
+                public void renderTile(int x0, int y0, int x1, int y1)
+                {
+                    int[] xs = new int[x1 - x0];
+                    float[] out = new float[x1 - x0];
+                    for(int y = mirroredTop + y0; y < mirroredTop + y1; y++)
+                    {
+                        for(int k = 0; k < xs.length; k++)
+                        {
+                            xs[k] = left + x0 + k;
+                        }
+                        kernel.sampleRow(y, xs, xs.length, out);
+                        for(int k = 0; k < xs.length; k++)
+                        {
+                            smooth[y * width + xs[k]] = out[k];
+                        }
+                    }
+                }
+            });
+        }
+        //pixels that were already known when the band was rendered weren't
+        //painted, so neither were their mirror images
+        painter.paint(0, mirroredTop, width, mirroredBottom);
+    }
+
+    /**
+     Returns the column that a copied pixel's column is the mirror image of
+     @param x the column of the pixel
+     @return the column it is copied from, or -1 if it has none in the frame
+     */
+    public int sourceColumn(int x)
+    {
+        if(symmetry == Symmetry.CONJUGATE)
+        {
+            return x;
+        }
+        int source = columns - x;
+        return source >= 0 && source < width ? source : -1;
+    }
+
+    //samples the rows of the band with the kernel of the whole frame
+    private static class BandKernel extends EscapeKernel
+    {
+        private final EscapeKernel kernel;
+        private final int firstRow;
+
+        BandKernel(EscapeKernel kernel, int firstRow, int lastRow)
+        {
+            //from the frame's view, since the double bounds of a deep view
+            //are all the same number
+            super(new RenderFrame(kernel.getFrame().getWidth(), lastRow - firstRow,
+                kernel.getFrame().getView().band(firstRow, lastRow, kernel.getFrame().getHeight()),
+                kernel.getFrame().getIterations()));
+            this.kernel = kernel;
+            this.firstRow = firstRow;
+        }
+
+        @Override
+        public float sample(int x, int y)
+        {
+            return kernel.sample(x, firstRow + y);
+        }
+
+        @Override
+        public void sampleRow(int y, int[] xs, int count, float[] out)
+        {
+            kernel.sampleRow(firstRow + y, xs, count, out);
+        }
+
+        @Override
+        public int getOrbitStateSize()
+        {
+            return kernel.getOrbitStateSize();
+        }
+
+        @Override
+        public void setOrbits(OrbitStore orbits)
+        {
+            kernel.setOrbits(orbits);
+        }
+
+        @Override
+        public OrbitStore getOrbits()
+        {
+            return kernel.getOrbits();
+        }
+
+        @Override
+        public Symmetry getSymmetry()
+        {
+            return kernel.getSymmetry();
+        }
+    }
+
+    //also copies every painted pixel to its mirror images
+    private class MirroringPainter extends FramePainter
+    {
+        private final int[] pixels;
+
+        MirroringPainter(IterationBuffer band, int[] pixels, PaletteTable table, Component component)
+        {
+            super(band, pixels, firstRow * width, table, component);
+            this.pixels = pixels;
+        }
+
+        @Override
+        public void paint(int x0, int y0, int x1, int y1)
+        {
+            super.paint(x0, y0, x1, y1);
+            reflect(x0, y0, x1, y1);
+        }
+
+        @Override
+        public void paintBlocks(int x0, int y0, int x1, int y1, int step)
+        {
+            super.paintBlocks(x0, y0, x1, y1, step);
+            reflect(x0, y0, x1, y1);
+        }
+
+        //copies the colors of a rectangle of the band
+        private void reflect(int x0, int y0, int x1, int y1)
+        {
+            for(int y = firstRow + y0; y < firstRow + y1; y++)
+            {
+                int target = rows - y;
+                if(target >= 0 && target < height && (target < firstRow || target >= lastRow))
+                {
+                    for(int x = x0; x < x1; x++)
+                    {
+                        int column = symmetry == Symmetry.CONJUGATE ? x : columns - x;
+                        if(column >= 0 && column < width)
+                        {
+                            pixels[target * width + column] = pixels[y * width + x];
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ Remembers what rendering a frame has learned about the orbit of every
+ pixel, independently of the iteration limit, so that a different limit can
+ be shown without starting over.
+ <p/>
+ For every pixel the store holds one of:
+ <ul>
+ <li>the iteration at which the pixel escaped, and its smooth value,</li>
+ <li>that the pixel is provably inside, for example because its orbit was
+     found to be periodic, or</li>
+ <li>how many iterations the pixel is known not to escape within, and,
+     unless that was inferred from its neighbours, the state of its orbit
+     after that many iterations.</li>
+ </ul>
+ Lowering the limit is then only a matter of re-thresholding the escape
+ counts, see {@link #fill(IterationBuffer, int)}, and raising it only
+ continues the orbits that hadn't escaped yet, from where they stopped.
+ <p/>
+ A kernel that can save its orbits reports how many doubles of state it
+ needs per pixel, see {@link EscapeKernel#getOrbitStateSize()}, and records
+ every pixel it samples. Each pixel is only written by the thread that
+ samples it, so the store needs no locking.
+ <p/>
+ @author Joey Bloom
+ */
+public class OrbitStore
+{
+    //counts[i] for a pixel that can never escape
+    private static final int INSIDE = Integer.MAX_VALUE;
+
+    private final int width;
+    private final int height;
+    private final int stateSize;
+    //the escape iteration of a pixel that escaped, INSIDE, or for a pixel
+    //that is still running, the bitwise complement of its depth
+    private final int[] counts;
+    private final float[] smooth;
+    //stateSize values per pixel; NaN first for a pixel that has a depth
+    //but no saved orbit
+    private final double[] state;
+
+    /**
+     Constructs an OrbitStore that knows nothing about any pixel yet.
+     <p/>
+     @param width     the width of the frame in pixels
+     @param height    the height of the frame in pixels
+     @param stateSize the number of doubles saved for each running orbit
+     */
+    public OrbitStore(int width, int height, int stateSize)
+    {
+        this.width = width;
+        this.height = height;
+        this.stateSize = stateSize;
+        counts = new int[width * height];
+        Arrays.fill(counts, ~0);
+        smooth = new float[width * height];
+        state = new double[width * height * stateSize];
+    }
+
+    /**
+     Forgets every pixel, so the store can be used for another frame of the
+     same shape without allocating it again. Only the counts are cleared,
+     since the saved orbits and smooth values of a pixel are only read once
+     its count says they were written.
+     */
+    public void reset()
+    {
+        Arrays.fill(counts, ~0);
+    }
+
+    /**
+     Returns whether this store has the given shape
+     <p/>
+     @param width     the width of a frame in pixels
+     @param height    the height of a frame in pixels
+     @param stateSize the number of doubles that a kernel saves per orbit
+     @return true if the store can hold that kernel's orbits for that frame
+     */
+    public boolean fits(int width, int height, int stateSize)
+    {
+        return this.width == width && this.height == height && this.stateSize == stateSize;
+    }
+
+    /**
+     Returns the backing array of saved orbits. The state of pixel index
+     starts at <code>index * stateSize</code>, and is only meaningful if
+     {@link #getResumeDepth(int)} is positive.
+     <p/>
+     @return the saved orbits
+     */
+    public double[] getState()
+    {
+        return state;
+    }
+
+    /**
+     Returns the number of doubles saved for each running orbit
+     @return the state size
+     */
+    public int getStateSize()
+    {
+        return stateSize;
+    }
+
+    /**
+     Returns how many iterations the saved orbit of a pixel has already been
+     iterated.
+     <p/>
+     @param index the pixel, <code>y * width + x</code>
+     @return the depth to continue from, or 0 if the orbit must be started
+             from the beginning
+     */
+    public int getResumeDepth(int index)
+    {
+        int count = counts[index];
+        if(count >= 0 || Double.isNaN(state[index * stateSize]))
+        {
+            return 0;
+        }
+        return ~count;
+    }
+
+    /**
+     Records that a pixel escaped.
+     <p/>
+     @param index  the pixel, <code>y * width + x</code>
+     @param count  the iteration at which it escaped
+     @param value  its smooth iteration value
+     */
+    public void escaped(int index, int count, float value)
+    {
+        counts[index] = count;
+        smooth[index] = value;
+    }
+
+    /**
+     Records that a pixel will never escape.
+     <p/>
+     @param index the pixel, <code>y * width + x</code>
+     */
+    public void inside(int index)
+    {
+        counts[index] = INSIDE;
+    }
+
+    /**
+     Records that a pixel hasn't escaped after depth iterations. The kernel
+     has saved the state of its orbit in {@link #getState()}.
+     <p/>
+     @param index the pixel, <code>y * width + x</code>
+     @param depth the number of iterations done
+     */
+    public void running(int index, int depth)
+    {
+        counts[index] = ~depth;
+    }
+
+    /**
+     Fills in every pixel of a buffer that is already decided at an
+     iteration limit: escaped pixels whose escape count is below the limit,
+     and pixels known not to escape within it. The rest are left UNKNOWN.
+     <p/>
+     @param buffer the buffer to fill
+     @param itr    the iteration limit
+     @return true if any pixel was filled in
+     */
+    public boolean fill(IterationBuffer buffer, int itr)
+    {
+        float[] values = buffer.getSmooth();
+        boolean any = false;
+        for(int i = 0; i < counts.length; i++)
+        {
+            int count = counts[i];
+            if(count >= 0)
+            {
+                values[i] = count < itr ? smooth[i] : IterationBuffer.INSIDE;
+                any = true;
+            }
+            else if(~count >= itr)
+            {
+                values[i] = IterationBuffer.INSIDE;
+                any = true;
+            }
+        }
+        return any;
+    }
+
+    /**
+     Records the pixels of a finished buffer that a strategy inferred to be
+     inside without sampling them, so that they count as not escaping within
+     the limit, though with no orbit to continue.
+     <p/>
+     @param buffer the finished buffer
+     @param itr    its iteration limit
+     */
+    public void recordInferred(IterationBuffer buffer, int itr)
+    {
+        float[] values = buffer.getSmooth();
+        for(int i = 0; i < counts.length; i++)
+        {
+            if(counts[i] < 0 && ~counts[i] < itr && values[i] == IterationBuffer.INSIDE)
+            {
+                counts[i] = ~itr;
+                state[i * stateSize] = Double.NaN;
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package mandelbrot;
+
+/**
+ Maps a smooth iteration value to a color.
+ <p/>
+ A Palette is never called per pixel while rendering. Instead it is sampled
+ once into a {@link PaletteTable}, so a Palette may be as slow as it likes.
+ <p/>
+ @author Joey Bloom
+ */
+public interface Palette
+{
+    /**
+     Returns the color of a pixel that escaped after the given fraction of
+     the iteration limit.
+     <p/>
+     @param fraction the smooth iteration count divided by the iteration
+                     limit; usually in [0,1], but may fall slightly outside
+     @return a packed RGB color
+     */
+    int color(float fraction);
+}
@@ -0,0 +1,401 @@
+package mandelbrot;
+
+/**
+ A Palette sampled into a dense lookup table, indexed by the smooth iteration
+ value quantized to a fixed number of steps per iteration.
+ <p/>
+ Coloring a pixel with a PaletteTable is an array lookup; there is no HSB
+ conversion and no transcendental function call per pixel. This class also
+ holds the fast approximations of the logarithms and exponentials used by
+ the smooth coloring methods, so the kernels don't pay for
+ <code>Math.log10</code> or <code>Math.exp</code> on every pixel.
+ <p/>
+ A pixel's position in the palette is
+ <code>offset + speed * smooth / itr</code>, so the offset rotates the
+ colors and the speed changes how fast they cycle. With histogram
+ equalization, <code>smooth / itr</code> is replaced by the fraction of the
+ frame's escaped pixels whose value is at most smooth, so the colors are
+ spread evenly over the pixels instead of over the iterations. That depends
+ on the frame, so an equalizing table is only used through
+ {@link #forFrame(IterationBuffer)}.
+ <p/>
+ @author Joey Bloom
+ */
+public class PaletteTable
+{
+    //the smallest table that keeps neighbouring entries less than
+    //one least significant bit apart for the default palette
+    private static final int MIN_ENTRIES = 16384;
+    private static final int MIN_STEPS_PER_ITERATION = 16;
+    //smooth values may fall a few iterations outside [0,itr] near the
+    //edge of the escape radius; leave room for them in the table
+    private static final int MARGIN = 8;
+
+    private final Palette palette;
+    private final int itr;
+    private final int insideColor;
+    private final float offset;
+    private final float speed;
+    private final boolean equalize;
+    private final float stepsPerIteration;
+    private final int[] table;
+    //whether table was sampled through a frame's histogram
+    private final boolean equalized;
+
+    /**
+     Constructs a PaletteTable that colors pixels that never escaped black.
+     <p/>
+     @param palette the palette to sample
+     @param itr     the iteration limit of the frames that will be colored
+     */
+    public PaletteTable(Palette palette, int itr)
+    {
+        this(palette, itr, 0);
+    }
+
+    /**
+     Constructs a PaletteTable.
+     <p/>
+     @param palette     the palette to sample
+     @param itr         the iteration limit of the frames that will be
+                        colored <br/>
+                        precondition: <code>itr &gt 0</code>
+     @param insideColor the packed RGB color of pixels that never escaped
+     */
+    public PaletteTable(Palette palette, int itr, int insideColor)
+    {
+        this(palette, itr, insideColor, 0, 1, false);
+    }
+
+    /**
+     Constructs a PaletteTable.
+     <p/>
+     @param palette     the palette to sample
+     @param itr         the iteration limit of the frames that will be
+                        colored <br/>
+                        precondition: <code>itr &gt 0</code>
+     @param insideColor the packed RGB color of pixels that never escaped
+     @param offset      added to the position of every pixel in the palette
+     @param speed       how many times faster than usual the colors cycle
+     @param equalize    whether {@link #forFrame(IterationBuffer)} spreads
+                        the colors evenly over the pixels of the frame
+     */
+    public PaletteTable(Palette palette, int itr, int insideColor,
+        float offset, float speed, boolean equalize)
+    {
+        this.palette = palette;
+        this.itr = itr;
+        this.insideColor = insideColor;
+        this.offset = offset;
+        this.speed = speed;
+        this.equalize = equalize;
+        equalized = false;
+        int steps = Math.max(MIN_STEPS_PER_ITERATION, (MIN_ENTRIES + itr - 1) / itr);
+        stepsPerIteration = steps;
+        table = new int[(itr + 2 * MARGIN) * steps + 1];
+        for(int i = 0; i < table.length; i++)
+        {
+            float smooth = (float) i / steps - MARGIN;
+            table[i] = palette.color(offset + speed * smooth / itr);
+        }
+    }
+
+    //a copy of plain sampled through the sum of partial histograms of its
+    //entries, some of which may be null; partial[k][i] counts entry
+    //lowest[k] + i
+    private PaletteTable(PaletteTable plain, final int[][] partial, final int[] lowest)
+    {
+        palette = plain.palette;
+        itr = plain.itr;
+        insideColor = plain.insideColor;
+        offset = plain.offset;
+        speed = plain.speed;
+        equalize = true;
+        equalized = true;
+        stepsPerIteration = plain.stepsPerIteration;
+        final int[] entries = new int[plain.table.length];
+        table = entries;
+
+        //a parallel prefix sum over blocks of entries: each block merges
+        //the partial histograms and adds up its counts, the block totals
+        //are scanned, and then each block scans its own entries
+        final int[] histogram = new int[entries.length];
+        final int blockSize = blockSize(entries.length);
+        final long[] below = new long[(entries.length + blockSize - 1) / blockSize + 1];
+        new TiledRenderer(blockSize).render(entries.length, 1, new TiledRenderer.TileTask()
+        {
+            @Override
+            public void renderTile(int x0, int y0, int x1, int y1)
+            {
+                long total = 0;
+                for(int k = 0; k < partial.length; k++)
+                {
+                    if(partial[k] == null)
+                    {
+                        continue;
+                    }
+                    int[] part = partial[k];
+                    int from = Math.max(x0, lowest[k]);
+                    int to = Math.min(x1, lowest[k] + part.length);
+                    for(int i = from; i < to; i++)
+                    {
+                        histogram[i] += part[i - lowest[k]];
+                    }
+                }
+                for(int i = x0; i < x1; i++)
+                {
+                    total += histogram[i];
+                }
+                below[x0 / blockSize + 1] = total;
+            }
+        });
+        for(int b = 1; b < below.length; b++)
+        {
+            below[b] += below[b - 1];
+        }
+        final double total = below[below.length - 1];
+        new TiledRenderer(blockSize).render(entries.length, 1, new TiledRenderer.TileTask()
+        {
+            @Override
+            public void renderTile(int x0, int y0, int x1, int y1)
+            {
+                long count = below[x0 / blockSize];
+                for(int i = x0; i < x1; i++)
+                {
+                    count += histogram[i];
+                    float fraction = total == 0 ? 0 : (float) (count / total);
+                    entries[i] = palette.color(offset + speed * fraction);
+                }
+            }
+        });
+    }
+
+    //splits length items into about one block per worker of the pool
+    private static int blockSize(int length)
+    {
+        int workers = TiledRenderer.getPool().getParallelism();
+        return Math.max(1, (length + workers - 1) / workers);
+    }
+
+    /**
+     Returns the table that colors a finished frame. Unless this table
+     equalizes, that is this table; otherwise it is a new table that maps
+     each entry through the histogram of the frame's escaped pixels.
+     <p/>
+     The histogram is built in parallel, one partial histogram per block of
+     pixels, so the threads never share a counter, and the partial
+     histograms are merged while the cumulative distribution is computed
+     with a parallel prefix sum. Each partial histogram only spans the
+     entries its block's escaped pixels fall in, so a high limit doesn't
+     cost a table-sized array per block.
+     <p/>
+     @param buffer the frame, with no UNKNOWN pixels
+     @return the table to color the frame with
+     */
+    public PaletteTable forFrame(IterationBuffer buffer)
+    {
+        if(!equalize)
+        {
+            return this;
+        }
+        final float[] smooth = buffer.getSmooth();
+        final int blockSize = blockSize(smooth.length);
+        final int[][] partial = new int[(smooth.length + blockSize - 1) / blockSize][];
+        final int[] lowest = new int[partial.length];
+        new TiledRenderer(blockSize).render(smooth.length, 1, new TiledRenderer.TileTask()
+        {
+            @Override
+            public void renderTile(int x0, int y0, int x1, int y1)
+            {
+                //the range of entries the block's pixels fall in
+                int low = Integer.MAX_VALUE;
+                int high = -1;
+                for(int i = x0; i < x1; i++)
+                {
+                    if(smooth[i] != IterationBuffer.INSIDE)
+                    {
+                        int index = index(smooth[i]);
+                        low = Math.min(low, index);
+                        high = Math.max(high, index);
+                    }
+                }
+                if(high < 0)
+                {
+                    return;
+                }
+                int[] histogram = new int[high - low + 1];
+                for(int i = x0; i < x1; i++)
+                {
+                    if(smooth[i] != IterationBuffer.INSIDE)
+                    {
+                        histogram[index(smooth[i]) - low]++;
+                    }
+                }
+                partial[x0 / blockSize] = histogram;
+                lowest[x0 / blockSize] = low;
+            }
+        });
+        return new PaletteTable(this, partial, lowest);
+    }
+
+    //the entry that a smooth value falls in, clamped to the table
+    private int index(float smooth)
+    {
+        int index = (int) ((smooth + MARGIN) * stepsPerIteration + .5f);
+        return Math.max(0, Math.min(table.length - 1, index));
+    }
+
+    /**
+     Returns the palette that this table was sampled from
+     @return the palette
+     */
+    public Palette getPalette()
+    {
+        return palette;
+    }
+
+    /**
+     Returns the iteration limit that this table was built for
+     @return the iteration limit
+     */
+    public int getIterations()
+    {
+        return itr;
+    }
+
+    /**
+     Returns what is added to the position of every pixel in the palette
+     @return the offset
+     */
+    public float getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     Returns how many times faster than usual the colors cycle
+     @return the speed
+     */
+    public float getSpeed()
+    {
+        return speed;
+    }
+
+    /**
+     Returns whether this table spreads the colors evenly over the pixels
+     of each frame it colors
+     @return true if histogram equalization is on
+     */
+    public boolean isEqualizing()
+    {
+        return equalize;
+    }
+
+    /**
+     Returns the color of a pixel.
+     <p/>
+     @param smooth the smooth iteration value of the pixel, or
+                   {@link IterationBuffer#INSIDE}
+     @return a packed RGB color
+     */
+    public int color(float smooth)
+    {
+        if(smooth == IterationBuffer.INSIDE)
+        {
+            return insideColor;
+        }
+        int index = (int) ((smooth + MARGIN) * stepsPerIteration + .5f);
+        if(index < 0 || index >= table.length)
+        {
+            if(equalized)
+            {
+                //every pixel is below or above the whole table
+                return table[index < 0 ? 0 : table.length - 1];
+            }
+            //too far outside the table to be worth a bigger one
+            return palette.color(offset + speed * smooth / itr);
+        }
+        return table[index];
+    }
+
+    //log2 of the mantissa, sampled at LOG2_TABLE_SIZE points on [1,2]
+    private static final int LOG2_BITS = 10;
+    private static final int LOG2_TABLE_SIZE = 1 << LOG2_BITS;
+    private static final double[] LOG2_MANTISSA = new double[LOG2_TABLE_SIZE + 1];
+    private static final double LOG10_2 = Math.log10(2.0);
+    private static final long MANTISSA_MASK = 0x000FFFFFFFFFFFFFL;
+    private static final int MANTISSA_BITS = 52;
+
+    //exp(-r) sampled at EXP_STEPS points per unit on [0,EXP_LIMIT]
+    private static final int EXP_STEPS = 256;
+    private static final int EXP_LIMIT = 16;
+    private static final double[] EXP_NEG = new double[EXP_LIMIT * EXP_STEPS + 2];
+
+    static
+    {
+        for(int i = 0; i <= LOG2_TABLE_SIZE; i++)
+        {
+            LOG2_MANTISSA[i] = Math.log(1.0 + (double) i / LOG2_TABLE_SIZE) / Math.log(2.0);
+        }
+        for(int i = 0; i < EXP_NEG.length; i++)
+        {
+            EXP_NEG[i] = Math.exp(-(double) i / EXP_STEPS);
+        }
+    }
+
+    /**
+     Approximates log base 2 of a positive, finite, normal double to within
+     about 1e-6.
+     <p/>
+     @param x the argument <br/>
+              precondition: <code>x &gt 0</code>
+     @return approximately log2(x)
+     */
+    public static double fastLog2(double x)
+    {
+        long bits = Double.doubleToRawLongBits(x);
+        int exponent = (int) (bits >>> MANTISSA_BITS) - 1023;
+        long mantissa = bits & MANTISSA_MASK;
+        int index = (int) (mantissa >>> (MANTISSA_BITS - LOG2_BITS));
+        //position between the two neighbouring table entries
+        double t = (mantissa & ((1L << (MANTISSA_BITS - LOG2_BITS)) - 1))
+            * (1.0 / (1L << (MANTISSA_BITS - LOG2_BITS)));
+        double lo = LOG2_MANTISSA[index];
+        return exponent + lo + t * (LOG2_MANTISSA[index + 1] - lo);
+    }
+
+    /**
+     Returns the smooth iteration value of a Mandelbrot pixel, that is
+     <code>i - log2(log10(|z|))</code>, where |z| is the magnitude of z
+     after it escaped.
+     <p/>
+     @param i                the iteration on which z escaped
+     @param magnitudeSquared |z|^2 <br/>
+                             precondition: <code>magnitudeSquared &gt 1</code>
+     @return the smooth iteration value
+     */
+    public static float smoothIteration(int i, double magnitudeSquared)
+    {
+        //log10(|z|) = log2(|z|^2) * log10(2) / 2
+        return (float) (i - fastLog2(fastLog2(magnitudeSquared) * (LOG10_2 / 2)));
+    }
+
+    /**
+     Approximates <code>exp(-sqrt(magnitudeSquared))</code>, the term that the
+     Julia smooth coloring adds up on every iteration.
+     <p/>
+     @param magnitudeSquared |z|^2
+     @return approximately exp(-|z|)
+     */
+    public static double expNegSqrt(double magnitudeSquared)
+    {
+        double r = Math.sqrt(magnitudeSquared) * EXP_STEPS;
+        if(r >= EXP_LIMIT * EXP_STEPS)
+        {
+            return Math.exp(-Math.sqrt(magnitudeSquared));
+        }
+        int index = (int) r;
+        double lo = EXP_NEG[index];
+        return lo + (r - index) * (EXP_NEG[index + 1] - lo);
+    }
+}
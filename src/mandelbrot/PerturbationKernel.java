@@ -0,0 +1,462 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Samples the Mandelbrot set at zoom depths far beyond what a double can
+ resolve, at about the cost per pixel of {@link MandelbrotKernel}.
+ <p/>
+ One reference orbit Z is computed with {@link FixedComplex} at the center of
+ the view, with enough digits to resolve a single pixel. Every pixel is then
+ iterated in double precision as a small difference d from that orbit:
+ <pre>
+     d' = 2Zd + d^2 + dc
+ </pre>
+ where dc is the distance from the reference point to the pixel. Only dc and
+ d have to be represented, and they are tiny, so doubles are enough no matter
+ how deep the zoom.
+ <p/>
+ Past a pixel spacing of about 1e-289, dc and d would underflow a double,
+ so they start out in units of 2^shift, where shift is the scale of the
+ view: d' = 2Zd' + 2^shift d'^2 + dc'. Whenever d' grows large it is
+ rescaled, along with dc', and once d itself fits a double the iteration
+ carries on in plain doubles; dc, which may not fit, is far too small next
+ to d by then to matter. The depth is then only limited by the exponent of
+ the view's scale, and by the cost of the reference orbit, which needs
+ about as many digits as the zoom has decades.
+ <p/>
+ A pixel glitches when Z + d becomes much smaller than Z (Pauldelbrot's
+ criterion: |Z + d|^2 &lt; 1e-6 |Z|^2), because d then loses the precision
+ that the result needs, or when the reference orbit escapes before the pixel
+ does. A glitched pixel is iterated again against the secondary reference
+ orbits, nearest first. The secondary references are chosen when the kernel
+ is constructed, from a probe of every 8th pixel in each direction: one at a
+ time, a reference is added at the glitched probe nearest the middle of the
+ probes that still glitch, until none do or there are
+ {@link #MAX_REFERENCES}. The references are then fixed, so every pixel
+ gets the same value whichever thread samples it and in whatever order. A
+ pixel that glitches against all of them, in a glitch too small for the
+ probes to see, is iterated against a reference of its own that isn't kept;
+ if the references ran out instead, it is iterated against the nearest one
+ as if it hadn't glitched.
+ <p/>
+ @author Joey Bloom
+ */
+public class PerturbationKernel extends EscapeKernel
+{
+    /**
+     The most reference orbits computed for one frame.
+     */
+    public static final int MAX_REFERENCES = 32;
+
+    //Pauldelbrot's glitch tolerance, squared
+    private static final double GLITCH_TOLERANCE = 1e-6;
+    //digits carried by the reference orbit beyond those needed to
+    //tell neighbouring pixels apart
+    private static final int GUARD_DIGITS = 12;
+    private static final double LOG2_10 = Math.log(10) / Math.log(2);
+    //deltas smaller than 2^MIN_EXPONENT are kept scaled, since products of
+    //them with small reference values would lose bits as subnormals
+    private static final int MIN_EXPONENT = -960;
+    //scaled deltas are rescaled before they grow past 2^MAX_SCALED_EXPONENT,
+    //so their squares can't overflow
+    private static final int MAX_SCALED_EXPONENT = 256;
+
+    //returned by iterate when the pixel glitched
+    private static final float GLITCHED = Float.NaN;
+    //every PROBE_STEP-th pixel in each direction is probed for glitches
+    private static final int PROBE_STEP = 8;
+
+    private final BigDecimal centerA;
+    private final BigDecimal centerB;
+    private final double centerX;
+    private final double centerY;
+    private final MathContext mc;
+    //dc' of neighbouring pixels, in units of 2^shift, and the shift that
+    //deltas start out in, or 0 if they fit doubles
+    private final double horizontalIncrement;
+    private final double verticalIncrement;
+    private final int shift;
+    //the primary reference first
+    private final Reference[] references;
+    private final AtomicLong glitches = new AtomicLong();
+
+    /**
+     Constructs a PerturbationKernel and computes its first reference orbit.
+     <p/>
+     @param frame   the frame whose pixels will be sampled; only its size,
+                    increments and iteration limit are used, since the
+                    position of the view is given by the center
+     @param centerA real component of the center of the frame
+     @param centerB imaginary component of the center of the frame
+     */
+    public PerturbationKernel(RenderFrame frame, BigDecimal centerA, BigDecimal centerB)
+    {
+        super(frame);
+        this.centerA = centerA;
+        this.centerB = centerB;
+        centerX = frame.getWidth() / 2.0;
+        centerY = frame.getHeight() / 2.0;
+        //the spacing may be too small for a double, so count its decimal
+        //places from the exact increments
+        int digits = Math.max(
+            decimalPlaces(frame.getExactHorizontalIncrement()),
+            decimalPlaces(frame.getExactVerticalIncrement())) + GUARD_DIGITS;
+        mc = new MathContext(Math.max(digits, 20), RoundingMode.HALF_EVEN);
+        if(Math.min(Math.getExponent(frame.getHorizontalIncrement()),
+            Math.getExponent(frame.getVerticalIncrement())) < MIN_EXPONENT)
+        {
+            shift = frame.getView().getScale();
+            BigDecimal unit = new BigDecimal(BigInteger.ONE.shiftLeft(-shift));
+            horizontalIncrement = frame.getExactHorizontalIncrement().multiply(unit).doubleValue();
+            verticalIncrement = frame.getExactVerticalIncrement().multiply(unit).doubleValue();
+        }
+        else
+        {
+            shift = 0;
+            horizontalIncrement = frame.getHorizontalIncrement();
+            verticalIncrement = frame.getVerticalIncrement();
+        }
+        references = chooseReferences(new Reference(centerX, centerY));
+    }
+
+    //the primary reference, followed by references added one at a time
+    //at the probes that glitch against all of the earlier ones
+    private Reference[] chooseReferences(Reference primary)
+    {
+        List<Reference> chosen = new ArrayList<>();
+        chosen.add(primary);
+        int columns = (frame.getWidth() + PROBE_STEP - 1) / PROBE_STEP;
+        int rows = (frame.getHeight() + PROBE_STEP - 1) / PROBE_STEP;
+        int[] probes = new int[columns * rows];
+        for(int i = 0; i < probes.length; i++)
+        {
+            probes[i] = i;
+        }
+        int count = retest(primary, probes, probes.length, columns);
+        while(count > 0 && chosen.size() < MAX_REFERENCES)
+        {
+            //the glitched probe nearest the middle of the glitched probes
+            double meanX = 0;
+            double meanY = 0;
+            for(int k = 0; k < count; k++)
+            {
+                meanX += probeX(probes[k], columns);
+                meanY += probeY(probes[k], columns);
+            }
+            meanX /= count;
+            meanY /= count;
+            int pick = probes[0];
+            double pickDistance = Double.POSITIVE_INFINITY;
+            for(int k = 0; k < count; k++)
+            {
+                double dx = probeX(probes[k], columns) - meanX;
+                double dy = probeY(probes[k], columns) - meanY;
+                if(dx * dx + dy * dy < pickDistance)
+                {
+                    pick = probes[k];
+                    pickDistance = dx * dx + dy * dy;
+                }
+            }
+            //d stays 0 against a reference at the probe, so each new
+            //reference clears at least that probe
+            Reference reference = new Reference(probeX(pick, columns), probeY(pick, columns));
+            chosen.add(reference);
+            count = retest(reference, probes, count, columns);
+        }
+        return chosen.toArray(new Reference[chosen.size()]);
+    }
+
+    //keeps, in order, the first count probes that still glitch against a
+    //reference, and returns how many there are
+    private int retest(final Reference reference, final int[] probes, int count, final int columns)
+    {
+        final boolean[] glitched = new boolean[count];
+        new TiledRenderer().render(count, 1, new TiledRenderer.TileTask()
+        {
+            @Override
+            public void renderTile(int x0, int y0, int x1, int y1)
+            {
+                for(int k = x0; k < x1; k++)
+                {
+                    glitched[k] = Float.isNaN(iterate(reference,
+                        probeX(probes[k], columns), probeY(probes[k], columns)));
+                }
+            }
+        });
+        int kept = 0;
+        for(int k = 0; k < count; k++)
+        {
+            if(glitched[k])
+            {
+                probes[kept++] = probes[k];
+            }
+        }
+        return kept;
+    }
+
+    //the pixel of a probe, in the middle of its cell where there is room
+    private int probeX(int probe, int columns)
+    {
+        return Math.min(frame.getWidth() - 1, probe % columns * PROBE_STEP + PROBE_STEP / 2);
+    }
+
+    private int probeY(int probe, int columns)
+    {
+        return Math.min(frame.getHeight() - 1, probe / columns * PROBE_STEP + PROBE_STEP / 2);
+    }
+
+    //-floor(log10 |value|), the decimal places down to its first digit
+    private static int decimalPlaces(BigDecimal value)
+    {
+        return value.scale() - value.precision() + 1;
+    }
+
+    /**
+     Returns the number of reference orbits computed so far, including the
+     one at the center
+     <p/>
+     @return the number of references
+     */
+    public int getReferenceCount()
+    {
+        return references.length;
+    }
+
+    /**
+     Returns the number of times a pixel glitched against a reference and
+     had to be iterated again
+     <p/>
+     @return the number of glitches
+     */
+    public long getGlitchCount()
+    {
+        return glitches.get();
+    }
+
+    /**
+     Returns the context that the reference orbits are computed with
+     <p/>
+     @return the math context
+     */
+    public MathContext getMathContext()
+    {
+        return mc;
+    }
+
+    @Override
+    public float sample(int x, int y)
+    {
+        Reference primary = references[0];
+        float value = iterate(primary, x, y);
+        if(!Float.isNaN(value))
+        {
+            return value;
+        }
+        glitches.incrementAndGet();
+
+        //try the secondary references, nearest first
+        Reference[] candidates = references;
+        boolean[] tried = new boolean[candidates.length];
+        tried[0] = true;
+        Reference closest = primary;
+        for(int attempt = 1; attempt < candidates.length; attempt++)
+        {
+            int nearest = -1;
+            double nearestDistance = Double.POSITIVE_INFINITY;
+            for(int r = 0; r < candidates.length; r++)
+            {
+                double dx = candidates[r].x - x;
+                double dy = candidates[r].y - y;
+                if(!tried[r] && dx * dx + dy * dy < nearestDistance)
+                {
+                    nearest = r;
+                    nearestDistance = dx * dx + dy * dy;
+                }
+            }
+            tried[nearest] = true;
+            if(attempt == 1)
+            {
+                closest = candidates[nearest];
+            }
+            value = iterate(candidates[nearest], x, y);
+            if(!Float.isNaN(value))
+            {
+                return value;
+            }
+            glitches.incrementAndGet();
+        }
+
+        if(candidates.length >= MAX_REFERENCES)
+        {
+            //out of references, so the probes may have left whole regions
+            //glitched; the best we can do is treat the pixel as if it
+            //hadn't glitched
+            return iterateAnyway(closest, x, y);
+        }
+        //a glitch too small for the probes to see; d stays 0 against a
+        //reference at the pixel, so this can't glitch
+        return iterate(new Reference(x, y), x, y);
+    }
+
+    @Override
+    public Symmetry getSymmetry()
+    {
+        return Symmetry.CONJUGATE;
+    }
+
+    //iterates a pixel against a reference, returning GLITCHED if the
+    //result can't be trusted
+    private float iterate(Reference ref, int x, int y)
+    {
+        return iterate(ref, x, y, true);
+    }
+
+    //iterates a pixel against a reference, ignoring glitches
+    private float iterateAnyway(Reference ref, int x, int y)
+    {
+        float value = iterate(ref, x, y, false);
+        return Float.isNaN(value) ? IterationBuffer.INSIDE : value;
+    }
+
+    private float iterate(Reference ref, int x, int y, boolean detectGlitches)
+    {
+        final int itr = frame.getIterations();
+        final double[] refA = ref.zA;
+        final double[] refB = ref.zB;
+        final int length = ref.length;
+        //distance from the reference point to this pixel, in units of
+        //2^shift until d fits a double
+        int shift = this.shift;
+        double dcA = (x - ref.x) * horizontalIncrement;
+        double dcB = (y - ref.y) * verticalIncrement;
+
+        //z starts at c, so d starts at dc
+        double dA = dcA;
+        double dB = dcB;
+        for(int i = 0; i < itr; i++)
+        {
+            if(i + 1 >= length)
+            {
+                //the reference escaped before this pixel did
+                return GLITCHED;
+            }
+            double zA = refA[i];
+            double zB = refB[i];
+            double squareA = dA * dA - dB * dB;
+            double squareB = 2 * dA * dB;
+            if(shift != 0)
+            {
+                //d'^2 is in units of 2^(2 shift)
+                squareA = Math.scalb(squareA, shift);
+                squareB = Math.scalb(squareB, shift);
+            }
+            //d = 2Zd + d^2 + dc
+            double dATemp = 2 * (zA * dA - zB * dB) + squareA + dcA;
+            dB = 2 * (zA * dB + zB * dA) + squareB + dcB;
+            dA = dATemp;
+            if(shift != 0)
+            {
+                int exponent = Math.getExponent(Math.max(Math.abs(dA), Math.abs(dB)));
+                if(exponent + shift >= MIN_EXPONENT)
+                {
+                    dA = Math.scalb(dA, shift);
+                    dB = Math.scalb(dB, shift);
+                    dcA = Math.scalb(dcA, shift);
+                    dcB = Math.scalb(dcB, shift);
+                    shift = 0;
+                }
+                else if(exponent > MAX_SCALED_EXPONENT)
+                {
+                    dA = Math.scalb(dA, -exponent);
+                    dB = Math.scalb(dB, -exponent);
+                    dcA = Math.scalb(dcA, -exponent);
+                    dcB = Math.scalb(dcB, -exponent);
+                    shift += exponent;
+                }
+            }
+
+            double nextA = refA[i + 1];
+            double nextB = refB[i + 1];
+            //z = Z + d
+            double a = nextA + (shift == 0 ? dA : Math.scalb(dA, shift));
+            double b = nextB + (shift == 0 ? dB : Math.scalb(dB, shift));
+            double magnitudeSquared = a * a + b * b;
+            if(magnitudeSquared > 4.0)//if escaped
+            {
+                //z is large now, so the two smoothing iterations
+                //don't need the reference
+                double cA = ref.cA + (shift == 0 ? dcA : Math.scalb(dcA, shift));
+                double cB = ref.cB + (shift == 0 ? dcB : Math.scalb(dcB, shift));
+                double aTemp = (a * a - b * b) + cA; //z = z^2 + c
+                b = (2 * a * b) + cB;
+                a = aTemp;
+                aTemp = (a * a - b * b) + cA;
+                b = (2 * a * b) + cB;
+                a = aTemp;
+                return PaletteTable.smoothIteration(i, a * a + b * b);
+            }
+            if(detectGlitches && magnitudeSquared < GLITCH_TOLERANCE * (nextA * nextA + nextB * nextB))
+            {
+                return GLITCHED;
+            }
+        }
+        return IterationBuffer.INSIDE; //if not escaped
+    }
+
+    //a reference orbit, computed with FixedComplex and stored as doubles
+    private class Reference
+    {
+        //pixel coordinates of the reference point
+        final double x;
+        final double y;
+        //the reference point, rounded to double
+        final double cA;
+        final double cB;
+        //Z[0] = c, Z[n + 1] = Z[n]^2 + c, up to the first Z that escaped
+        final double[] zA;
+        final double[] zB;
+        final int length;
+
+        Reference(double x, double y)
+        {
+            this.x = x;
+            this.y = y;
+            BigDecimal a = centerA.add(
+                frame.getExactHorizontalIncrement().multiply(new BigDecimal(x - centerX)), mc);
+            BigDecimal b = centerB.add(
+                frame.getExactVerticalIncrement().multiply(new BigDecimal(y - centerY)), mc);
+            cA = a.doubleValue();
+            cB = b.doubleValue();
+
+            int itr = frame.getIterations();
+            zA = new double[itr + 1];
+            zB = new double[itr + 1];
+            //the orbit stays small until it escapes, so carrying as many
+            //bits as mc carries digits keeps the same resolution
+            int bits = (int) Math.ceil(mc.getPrecision() * LOG2_10);
+            FixedComplex c = new FixedComplex(a, b, bits);
+            FixedComplex z = new FixedComplex(bits).set(c);
+            int n = 0;
+            while(true)
+            {
+                zA[n] = z.realDouble();
+                zB[n] = z.imaginaryDouble();
+                if(n == itr || zA[n] * zA[n] + zB[n] * zB[n] > 4.0)
+                {
+                    break;
+                }
+                z.square();
+                z.add(c); //z = z^2 + c
+                n++;
+            }
+            length = n + 1;
+        }
+    }
+}
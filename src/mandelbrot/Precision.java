@@ -0,0 +1,67 @@
+package mandelbrot;
+
+/**
+ The arithmetic that the Mandelbrot set is computed with, from cheapest to
+ most precise. {@link #forView(double, double)} picks the cheapest one that
+ can still tell neighbouring pixels apart.
+ <p/>
+ @author Joey Bloom
+ */
+public enum Precision
+{
+    /**
+     Plain doubles, with {@link MandelbrotKernel}. Fast, but views narrower
+     than about 1e-13 come out blocky.
+     */
+    DOUBLE("Double"),
+    /**
+     Double-double arithmetic, with {@link DoubleDoubleKernel}. Several
+     times slower than doubles, but resolves views down to about 1e-30.
+     */
+    DOUBLE_DOUBLE("Double-double"),
+    /**
+     A FixedComplex reference orbit with double-precision deltas, with
+     {@link PerturbationKernel}. Works at any depth.
+     */
+    PERTURBATION("Perturbation");
+
+    //pixels must be this many ulps apart for the iteration to keep
+    //them apart, since every iteration adds rounding error
+    private static final double GUARD_ULPS = 1024;
+    //the unit roundoff of double-double relative to that of double
+    private static final double DOUBLE_DOUBLE_ULP = 0x1p-53;
+
+    private final String name;
+
+    private Precision(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     Returns the cheapest precision that resolves a view.
+     <p/>
+     @param magnitude the largest magnitude of a coordinate in the view
+     @param spacing   the distance between neighbouring pixels
+     @return DOUBLE, DOUBLE_DOUBLE or PERTURBATION
+     */
+    public static Precision forView(double magnitude, double spacing)
+    {
+        double resolution = Math.ulp(magnitude) * GUARD_ULPS;
+        if(spacing >= resolution)
+        {
+            return DOUBLE;
+        }
+        if(spacing >= resolution * DOUBLE_DOUBLE_ULP)
+        {
+            return DOUBLE_DOUBLE;
+        }
+        return PERTURBATION;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,113 @@
+package mandelbrot;
+
+/**
+ Samples a frame in tiles, optionally in several passes of increasing
+ resolution.
+ <p/>
+ With passes of 8, 4, 2 and 1, the default, the first pass samples every 8th
+ pixel in each direction and paints each sample as an 8x8 block, and the
+ later passes refine the image in place. Like Adam7 interlacing, each pass
+ only computes the pixels that no earlier pass did, so the whole frame costs
+ no more than rendering it in one pass, while the first pass shows up after
+ 1/64 of the work.
+ <p/>
+ @author Joey Bloom
+ */
+public class ProgressiveStrategy extends RenderStrategy
+{
+    private final TiledRenderer renderer = new TiledRenderer();
+    private final int[] passes;
+
+    /**
+     Constructs a ProgressiveStrategy with passes at 1/8, 1/4, 1/2 and full
+     resolution.
+     */
+    public ProgressiveStrategy()
+    {
+        this("Progressive", 8, 4, 2, 1);
+    }
+
+    /**
+     Constructs a ProgressiveStrategy.
+     <p/>
+     @param name   the name of the strategy
+     @param passes the distance between samples in each pass, each a
+                   divisor of the one before and of the tile size, ending
+                   with 1
+     */
+    public ProgressiveStrategy(String name, int... passes)
+    {
+        super(name);
+        this.passes = passes.clone();
+    }
+
+    /**
+     Returns a strategy that samples every pixel in a single pass
+     <p/>
+     @return the strategy
+     */
+    public static ProgressiveStrategy singlePass()
+    {
+        return new ProgressiveStrategy("Single pass", 1);
+    }
+
+    @Override
+    public void render(final EscapeKernel kernel, IterationBuffer buffer,
+        final FramePainter painter, final RenderService.Ticket ticket)
+    {
+        final int width = buffer.getWidth();
+        final float[] smooth = buffer.getSmooth();
+        for(final int step : passes)
+        {
+            //each tile writes a disjoint set of pixels, so the
+            //tiles can share the buffers without locking. Tiles
+            //are a multiple of every step in size, so each tile
+            //starts on the sample lattice.
+            renderer.render(width, buffer.getHeight(), new TiledRenderer.TileTask()
+            {
+                @Override
+                public void renderTile(int x0, int y0, int x1, int y1)
+                {
+                    int[] xs = new int[x1 - x0];
+                    float[] values = new float[x1 - x0];
+                    boolean computed = false;
+                    for(int y = y0; y < y1; y += step)
+                    {
+                        if(ticket.isCancelled())
+                        {
+                            return;
+                        }
+                        //samples from coarser passes are reused, so
+                        //only hand the kernel the unknown ones
+                        int count = 0;
+                        for(int x = x0; x < x1; x += step)
+                        {
+                            if(IterationBuffer.isUnknown(smooth[y * width + x]))
+                            {
+                                xs[count++] = x;
+                            }
+                        }
+                        computed |= count > 0;
+                        kernel.sampleRow(y, xs, count, values);
+                        for(int k = 0; k < count; k++)
+                        {
+                            smooth[y * width + xs[k]] = values[k];
+                        }
+                    }
+                    //a tile that was already known, say from a panned
+                    //frame, is already painted at full resolution
+                    if(computed)
+                    {
+                        painter.paintBlocks(x0, y0, x1, y1, step);
+                        ticket.progress();
+                    }
+                }
+            });
+            if(ticket.isCancelled())
+            {
+                return;
+            }
+            painter.flush();
+        }
+    }
+}
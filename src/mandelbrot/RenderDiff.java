@@ -0,0 +1,237 @@
+package mandelbrot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Compares a rendered frame against the same frame with every pixel sampled
+ by the kernel, to confirm that a strategy which infers pixels instead of
+ sampling them doesn't make visible errors.
+ <p/>
+ Pixels of a mirrored frame that were copied from their mirror images,
+ see {@link Mirror}, hold the value of the mirrored point, which sampling
+ the pixel itself only reproduces up to rounding. Where the two samples
+ differ, the pixel is counted apart from the strategy's differences.
+ <p/>
+ @author Joey Bloom
+ */
+public class RenderDiff
+{
+    private final long pixels;
+    private final long differing;
+    private final long misclassified;
+    private final long recolored;
+    private final double maxError;
+    private final int maxColorDifference;
+    private final long mirroredDiffering;
+
+    private RenderDiff(long pixels, long differing, long misclassified, long recolored,
+        double maxError, int maxColorDifference, long mirroredDiffering)
+    {
+        this.mirroredDiffering = mirroredDiffering;
+        this.maxColorDifference = maxColorDifference;
+        this.pixels = pixels;
+        this.differing = differing;
+        this.misclassified = misclassified;
+        this.recolored = recolored;
+        this.maxError = maxError;
+    }
+
+    /**
+     Samples every pixel of a frame and compares the result with a rendered
+     buffer. Blocks until done.
+     <p/>
+     @param kernel   a kernel for the frame of the buffer; pass a new one
+                     rather than the one that rendered the buffer, whose
+                     statistics would count every sample
+     @param rendered the buffer to check
+     @param table    the palette used to decide whether a difference is
+                     visible
+     @return the differences found
+     */
+    public static RenderDiff compare(EscapeKernel kernel, IterationBuffer rendered, PaletteTable table)
+    {
+        return compare(kernel, rendered, table, null);
+    }
+
+    /**
+     Samples every pixel of a frame and compares the result with a rendered
+     buffer, counting the differences of the pixels that were copied from
+     their mirror images separately. Blocks until done.
+     <p/>
+     @param kernel   a kernel for the frame of the buffer; pass a new one
+                     rather than the one that rendered the buffer, whose
+                     statistics would count every sample
+     @param rendered the buffer to check
+     @param table    the palette used to decide whether a difference is
+                     visible
+     @param mirror   how the buffer was mirrored, or null if it wasn't
+     @return the differences found
+     */
+    public static RenderDiff compare(final EscapeKernel kernel, IterationBuffer rendered, final PaletteTable table,
+        final Mirror mirror)
+    {
+        final int width = rendered.getWidth();
+        final float[] smooth = rendered.getSmooth();
+        final AtomicLong differing = new AtomicLong();
+        final AtomicLong misclassified = new AtomicLong();
+        final AtomicLong recolored = new AtomicLong();
+        //float bits of the largest error, which order like the floats
+        //themselves since the error is never negative
+        final AtomicLong maxErrorBits = new AtomicLong();
+        final AtomicLong maxColorDifference = new AtomicLong();
+        final AtomicLong mirroredDiffering = new AtomicLong();
+        new TiledRenderer().render(width, rendered.getHeight(), new TiledRenderer.TileTask()
+        {
+            @Override
+            public void renderTile(int x0, int y0, int x1, int y1)
+            {
+                long tileDiffering = 0;
+                long tileMisclassified = 0;
+                long tileRecolored = 0;
+                double tileMaxError = 0;
+                int tileMaxColorDifference = 0;
+                long tileMirroredDiffering = 0;
+                for(int y = y0; y < y1; y++)
+                {
+                    for(int x = x0; x < x1; x++)
+                    {
+                        float actual = smooth[y * width + x];
+                        float expected = kernel.sample(x, y);
+                        if(actual == expected)
+                        {
+                            continue;
+                        }
+                        if(mirror != null && mirror.isCopied(x, y)
+                            && kernel.sample(mirror.sourceColumn(x), mirror.sourceRow(y)) != expected)
+                        {
+                            tileMirroredDiffering++;
+                            continue;
+                        }
+                        tileDiffering++;
+                        if((actual == IterationBuffer.INSIDE) != (expected == IterationBuffer.INSIDE))
+                        {
+                            tileMisclassified++;
+                        }
+                        else
+                        {
+                            tileMaxError = Math.max(tileMaxError, Math.abs(actual - expected));
+                        }
+                        int actualColor = table.color(actual);
+                        int expectedColor = table.color(expected);
+                        if(actualColor != expectedColor)
+                        {
+                            tileRecolored++;
+                            for(int shift = 0; shift < 24; shift += 8)
+                            {
+                                tileMaxColorDifference = Math.max(tileMaxColorDifference,
+                                    Math.abs(((actualColor >> shift) & 0xff) - ((expectedColor >> shift) & 0xff)));
+                            }
+                        }
+                    }
+                }
+                differing.addAndGet(tileDiffering);
+                misclassified.addAndGet(tileMisclassified);
+                recolored.addAndGet(tileRecolored);
+                mirroredDiffering.addAndGet(tileMirroredDiffering);
+                raise(maxErrorBits, Double.doubleToLongBits(tileMaxError));
+                raise(maxColorDifference, tileMaxColorDifference);
+            }
+        });
+        return new RenderDiff((long) width * rendered.getHeight(), differing.get(),
+            misclassified.get(), recolored.get(), Double.longBitsToDouble(maxErrorBits.get()),
+            (int) maxColorDifference.get(), mirroredDiffering.get());
+    }
+
+    //sets max to value if value is larger
+    private static void raise(AtomicLong max, long value)
+    {
+        long current;
+        while(value > (current = max.get()) && !max.compareAndSet(current, value))
+        {
+        }
+    }
+
+    /**
+     Returns the number of pixels compared
+     @return width * height
+     */
+    public long getPixels()
+    {
+        return pixels;
+    }
+
+    /**
+     Returns the number of pixels whose smooth value differs at all
+     @return the number of differing pixels
+     */
+    public long getDiffering()
+    {
+        return differing;
+    }
+
+    /**
+     Returns the number of pixels that were inside in one buffer and escaped
+     in the other
+     @return the number of misclassified pixels
+     */
+    public long getMisclassified()
+    {
+        return misclassified;
+    }
+
+    /**
+     Returns the number of pixels whose color differs
+     @return the number of visibly different pixels
+     */
+    public long getRecolored()
+    {
+        return recolored;
+    }
+
+    /**
+     Returns the largest difference in smooth value among pixels that
+     escaped in both buffers
+     @return the largest error, in iterations
+     */
+    public double getMaxError()
+    {
+        return maxError;
+    }
+
+    /**
+     Returns the largest difference in any one of the red, green or blue
+     channels between the colors of a pixel in the two buffers
+     @return the largest channel difference, from 0 to 255
+     */
+    public int getMaxColorDifference()
+    {
+        return maxColorDifference;
+    }
+
+    /**
+     Returns the number of pixels copied from their mirror images where
+     sampling the pixel and sampling its mirror image give different
+     values. These aren't counted by the other methods.
+     @return the number of differing mirrored pixels
+     */
+    public long getMirroredDiffering()
+    {
+        return mirroredDiffering;
+    }
+
+    /**
+     Returns a report of the differences
+     @return a multi-line description
+     */
+    @Override
+    public String toString()
+    {
+        return "Pixels compared: " + pixels
+            + "\nDiffering values: " + differing
+            + "\nInside/escaped mismatches: " + misclassified
+            + "\nPixels with different colors: " + recolored
+            + "\nLargest color channel difference: " + maxColorDifference + "/255"
+            + "\nLargest smooth error: " + maxError + " iterations"
+            + "\nDiffering mirrored values: " + mirroredDiffering;
+    }
+}
@@ -0,0 +1,195 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+
+/**
+ An immutable description of one frame to render: its size in pixels, the
+ point in the complex plane at its top left pixel, the distance between
+ neighbouring pixels, and the iteration limit.
+ <p/>
+ The frame also keeps the {@link View} it shows, along with the increments
+ between pixels in full precision, so that deep kernels can find the
+ coordinates of a pixel from the center of the view without doing any
+ BigDecimal arithmetic per pixel.
+ <p/>
+ A RenderFrame is captured on the event dispatch thread when a render is
+ requested, so the render can run in the background while the panel's view
+ keeps changing.
+ <p/>
+ @author Joey Bloom
+ */
+public class RenderFrame
+{
+    private final int width;
+    private final int height;
+    private final double left;
+    private final double top;
+    private final double horizontalIncrement;
+    private final double verticalIncrement;
+    private final int itr;
+    private final View view;
+    private final BigDecimal exactHorizontalIncrement;
+    private final BigDecimal exactVerticalIncrement;
+
+    /**
+     Constructs a RenderFrame that shows a view.
+     <p/>
+     @param width  the width of the frame in pixels
+     @param height the height of the frame in pixels
+     @param view   the view to show
+     @param itr    the iteration limit
+     */
+    public RenderFrame(int width, int height, View view, int itr)
+    {
+        this.width = width;
+        this.height = height;
+        this.left = view.getLeft().doubleValue();
+        this.top = view.getTop().doubleValue();
+        this.horizontalIncrement = view.getWidth() / width;
+        this.verticalIncrement = view.getHeight() / height;
+        this.itr = itr;
+        this.view = view;
+        exactHorizontalIncrement = view.getExactWidth().divide(
+            BigDecimal.valueOf(width), view.getMathContext());
+        exactVerticalIncrement = view.getExactHeight().divide(
+            BigDecimal.valueOf(height), view.getMathContext());
+    }
+
+    /**
+     Constructs a RenderFrame that covers a rectangle of the complex plane.
+     <p/>
+     @param width  the width of the frame in pixels
+     @param height the height of the frame in pixels
+     @param left   the lowest number on the real axis
+     @param right  the highest number on the real axis
+     @param top    the number on the imaginary axis at the top of the frame
+     @param bottom the number on the imaginary axis at the bottom of the frame
+     @param itr    the iteration limit
+     */
+    public RenderFrame(int width, int height, double left, double right,
+        double top, double bottom, int itr)
+    {
+        this.width = width;
+        this.height = height;
+        this.left = left;
+        this.top = top;
+        this.horizontalIncrement = (right - left) / width;
+        this.verticalIncrement = (bottom - top) / height;
+        this.itr = itr;
+        this.view = View.fromBounds(left, right, top, bottom);
+        exactHorizontalIncrement = new BigDecimal(horizontalIncrement);
+        exactVerticalIncrement = new BigDecimal(verticalIncrement);
+    }
+
+    /**
+     Returns the width of the frame
+     @return width in pixels
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     Returns the height of the frame
+     @return height in pixels
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     Returns the real component of the top left pixel
+     @return left
+     */
+    public double getLeft()
+    {
+        return left;
+    }
+
+    /**
+     Returns the imaginary component of the top left pixel
+     @return top
+     */
+    public double getTop()
+    {
+        return top;
+    }
+
+    /**
+     Returns the distance along the real axis between neighbouring columns
+     @return the horizontal increment
+     */
+    public double getHorizontalIncrement()
+    {
+        return horizontalIncrement;
+    }
+
+    /**
+     Returns the distance along the imaginary axis between neighbouring rows
+     @return the vertical increment
+     */
+    public double getVerticalIncrement()
+    {
+        return verticalIncrement;
+    }
+
+    /**
+     Returns the distance along the real axis between neighbouring columns,
+     rounded to the precision hint of the view
+     @return the horizontal increment
+     */
+    public BigDecimal getExactHorizontalIncrement()
+    {
+        return exactHorizontalIncrement;
+    }
+
+    /**
+     Returns the distance along the imaginary axis between neighbouring rows,
+     rounded to the precision hint of the view
+     @return the vertical increment
+     */
+    public BigDecimal getExactVerticalIncrement()
+    {
+        return exactVerticalIncrement;
+    }
+
+    /**
+     Returns the view that this frame shows
+     @return the view
+     */
+    public View getView()
+    {
+        return view;
+    }
+
+    /**
+     Returns the iteration limit
+     @return itr
+     */
+    public int getIterations()
+    {
+        return itr;
+    }
+
+    /**
+     Returns the real component of the point at column x
+     @param x the column
+     @return left + x * horizontalIncrement
+     */
+    public double real(int x)
+    {
+        return left + x * horizontalIncrement;
+    }
+
+    /**
+     Returns the imaginary component of the point at row y
+     @param y the row
+     @return top + y * verticalIncrement
+     */
+    public double imaginary(int y)
+    {
+        return top + y * verticalIncrement;
+    }
+}
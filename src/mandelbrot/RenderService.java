@@ -0,0 +1,143 @@
+package mandelbrot;
+
+import java.awt.Component;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ Runs render jobs for one component on a background thread, so that the
+ event dispatch thread never waits for a fractal to be computed.
+ <p/>
+ Every submitted job is given the next value of a generation counter. A job
+ is cancelled as soon as a newer job is submitted; it finds out by polling
+ {@link Ticket#isCancelled()}, which it should do at least once per row.
+ Only the newest job is ever allowed to publish its results.
+ <p/>
+ @author Joey Bloom
+ */
+public class RenderService
+{
+    //don't repaint the component more often than this while a job
+    //reports progress
+    private static final long PROGRESS_INTERVAL_NANOS = 30000000L;
+
+    private final Component component;
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong lastProgress = new AtomicLong();
+    private final ExecutorService executor;
+    private Future<?> pending;
+
+    /**
+     Constructs a RenderService.
+     <p/>
+     @param component the component to repaint when a job makes progress
+     @param name      the name of the background thread
+     */
+    public RenderService(Component component, final String name)
+    {
+        this.component = component;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     Cancels any job that is still running and queues a new one. Returns
+     immediately.
+     <p/>
+     @param job the job to run
+     @return the ticket that the job will be run with
+     */
+    public synchronized Ticket submit(final Job job)
+    {
+        final Ticket ticket = new Ticket(generation.incrementAndGet());
+        if(pending != null)
+        {
+            //a job that hasn't started yet never will; a job that
+            //has started will notice its ticket is stale
+            pending.cancel(false);
+        }
+        pending = executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if(!ticket.isCancelled())
+                {
+                    job.run(ticket);
+                }
+            }
+        });
+        return ticket;
+    }
+
+    /**
+     A piece of work submitted to a RenderService.
+     */
+    public interface Job
+    {
+        /**
+         Does the work. Called on the service's background thread.
+         <p/>
+         @param ticket used to check for cancellation and report progress
+         */
+        void run(Ticket ticket);
+    }
+
+    /**
+     Identifies one submitted job.
+     */
+    public class Ticket
+    {
+        private final long generation;
+
+        private Ticket(long generation)
+        {
+            this.generation = generation;
+        }
+
+        /**
+         Returns the generation of this ticket's job
+         @return the generation
+         */
+        public long getGeneration()
+        {
+            return generation;
+        }
+
+        /**
+         Returns whether a newer job has been submitted, in which case the
+         results of this job will never be shown.
+         <p/>
+         @return true if this job should stop as soon as possible
+         */
+        public boolean isCancelled()
+        {
+            return generation != RenderService.this.generation.get();
+        }
+
+        /**
+         Reports that the job has changed what the component shows. The
+         component is repainted, at most once every 30 ms.
+         */
+        public void progress()
+        {
+            long now = System.nanoTime();
+            long last = lastProgress.get();
+            if(now - last >= PROGRESS_INTERVAL_NANOS && lastProgress.compareAndSet(last, now))
+            {
+                component.repaint();
+            }
+        }
+    }
+}
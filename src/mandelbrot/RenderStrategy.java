@@ -0,0 +1,69 @@
+package mandelbrot;
+
+/**
+ Decides in what order, and whether, the pixels of a frame are sampled.
+ <p/>
+ A strategy fills every {@link IterationBuffer#UNKNOWN} pixel of a buffer,
+ either by sampling it with the kernel or by inferring it from pixels that
+ were sampled, and hands finished regions to a {@link FramePainter} so they
+ show up while the rest of the frame is still being worked on. Pixels that
+ already hold a value are left alone, so a strategy can finish a buffer that
+ was partly filled in by some other means.
+ <p/>
+ Strategies hold no state of their own and can be shared between panels.
+ <p/>
+ @author Joey Bloom
+ */
+public abstract class RenderStrategy
+{
+    private final String name;
+
+    /**
+     Constructs a RenderStrategy.
+     <p/>
+     @param name the name of the strategy, as shown in menus
+     */
+    protected RenderStrategy(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     Fills in a frame. Returns early, leaving the buffer incomplete, if the
+     ticket is cancelled.
+     <p/>
+     @param kernel  computes the pixels of the frame
+     @param buffer  receives the smooth iteration values
+     @param painter colors finished regions of the buffer
+     @param ticket  checked for cancellation at least once per row
+     */
+    public abstract void render(EscapeKernel kernel, IterationBuffer buffer,
+        FramePainter painter, RenderService.Ticket ticket);
+
+    /**
+     Returns whether the buffers this strategy fills hold escape times that
+     can be kept: cached, recorded in the orbit store, and reused for a
+     later frame. By default they do.
+     <p/>
+     @return true if the finished buffers can be reused
+     */
+    public boolean isReusable()
+    {
+        return true;
+    }
+
+    /**
+     Returns the name of the strategy
+     @return the name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,27 @@
+package mandelbrot;
+
+/**
+ The symmetry of a fractal that lets {@link Mirror} copy half of a frame
+ instead of computing it.
+ <p/>
+ @author Joey Bloom
+ */
+public enum Symmetry
+{
+    /**
+     No symmetry that frames can use.
+     */
+    NONE,
+    /**
+     Symmetric about the real axis: the value at conj(c) is the value at c,
+     as for the Mandelbrot set, since the orbit of conj(c) is the conjugate
+     of the orbit of c.
+     */
+    CONJUGATE,
+    /**
+     Symmetric under rotation by 180 degrees about 0: the value at -z is the
+     value at z, as for every Julia set of z^2 + c, since -z and z have the
+     same image.
+     */
+    ROTATIONAL
+}
@@ -0,0 +1,151 @@
+package mandelbrot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ Splits a frame into square tiles and renders them in parallel on a shared
+ work-stealing ForkJoinPool with one worker per core.
+ <p/>
+ The renderer knows nothing about fractals; each tile is handed to a
+ {@link TileTask}, which is responsible for computing and storing the pixels
+ inside it. Tiles never overlap, so a TileTask may write its results into a
+ shared buffer without synchronization.
+ <p/>
+ @author Joey Bloom
+ */
+public class TiledRenderer
+{
+    /**
+     The default width and height, in pixels, of a tile.
+     */
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private static final ForkJoinPool POOL =
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final int tileSize;
+
+    /**
+     Constructs a TiledRenderer that uses tiles of the default size.
+     */
+    public TiledRenderer()
+    {
+        this(DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     Constructs a TiledRenderer.
+     <p/>
+     @param tileSize the width and height of a tile in pixels <br/>
+                     precondition: <code>tileSize &gt 0</code>
+     */
+    public TiledRenderer(int tileSize)
+    {
+        if(tileSize <= 0)
+        {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.tileSize = tileSize;
+    }
+
+    /**
+     Returns the pool that all TiledRenderers run their tiles on.
+     <p/>
+     @return the shared ForkJoinPool
+     */
+    public static ForkJoinPool getPool()
+    {
+        return POOL;
+    }
+
+    /**
+     Renders a frame of the given size, blocking until every tile is done.
+     <p/>
+     @param width  the width of the frame in pixels
+     @param height the height of the frame in pixels
+     @param task   the work to do for each tile
+     */
+    public void render(int width, int height, TileTask task)
+    {
+        List<TileAction> tiles = new ArrayList<>();
+        for(int y = 0; y < height; y += tileSize)
+        {
+            for(int x = 0; x < width; x += tileSize)
+            {
+                tiles.add(new TileAction(task,
+                    x, y,
+                    Math.min(x + tileSize, width),
+                    Math.min(y + tileSize, height)));
+            }
+        }
+        if(tiles.isEmpty())
+        {
+            return;
+        }
+        POOL.invoke(new TileBatch(tiles));
+    }
+
+    /**
+     The work done for a single tile. Implementations must be safe to call
+     from several threads at once for different tiles.
+     */
+    public interface TileTask
+    {
+        /**
+         Renders the pixels in the rectangle [x0,x1) x [y0,y1).
+         <p/>
+         @param x0 the leftmost column of the tile, inclusive
+         @param y0 the topmost row of the tile, inclusive
+         @param x1 the rightmost column of the tile, exclusive
+         @param y1 the bottommost row of the tile, exclusive
+         */
+        void renderTile(int x0, int y0, int x1, int y1);
+    }
+
+    //forks every tile so that idle workers can steal them; tasks are never
+    //serialized
+    @SuppressWarnings("serial")
+    private static class TileBatch extends RecursiveAction
+    {
+        private final List<TileAction> tiles;
+
+        TileBatch(List<TileAction> tiles)
+        {
+            this.tiles = tiles;
+        }
+
+        @Override
+        protected void compute()
+        {
+            invokeAll(tiles);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class TileAction extends RecursiveAction
+    {
+        private final TileTask task;
+        private final int x0;
+        private final int y0;
+        private final int x1;
+        private final int y1;
+
+        TileAction(TileTask task, int x0, int y0, int x1, int y1)
+        {
+            this.task = task;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute()
+        {
+            task.renderTile(x0, y0, x1, y1);
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package mandelbrot;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ An immutable rectangle of the complex plane, precise enough for any zoom
+ depth.
+ <p/>
+ The center is held as a pair of BigDecimals. The size is held in scaled
+ exponent form, as a width and height mantissa times 2^scale, with the
+ larger mantissa kept between 1 and 2, so the size never underflows and
+ never needs BigDecimal arithmetic to change. As in the rest of the
+ program, "top" is the imaginary coordinate at the top of the screen, which
+ is the lower one, so the height is bottom - top.
+ <p/>
+ Every view also has a precision hint, {@link #getMathContext()}, with
+ enough digits to resolve the pixels of any reasonably sized screen, which
+ is what the BigDecimal arithmetic on the view is rounded to.
+ <p/>
+ @author Joey Bloom
+ */
+public final class View
+{
+    //digits carried beyond those needed to tell apart points one
+    //view width apart, enough for 10^6 pixels across and some rounding
+    private static final int GUARD_DIGITS = 8;
+    //the fewest digits that the math context ever carries, about
+    //what a double shows
+    private static final int MIN_DIGITS = 17;
+    private static final double LOG10_2 = Math.log10(2);
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+
+    /**
+     The view that shows the whole Mandelbrot set.
+     */
+    public static final View HOME = fromBounds(-5.0, 2.0, -2.0, 2.0);
+
+    private final BigDecimal centerA;
+    private final BigDecimal centerB;
+    private final double widthMantissa;
+    private final double heightMantissa;
+    private final int scale;
+    private final MathContext mc;
+
+    /**
+     Constructs a View.
+     <p/>
+     @param centerA the real component of the center
+     @param centerB the imaginary component of the center
+     @param width   the mantissa of the width, right - left
+     @param height  the mantissa of the height, bottom - top
+     @param scale   the power of 2 that the mantissas are scaled by
+     */
+    public View(BigDecimal centerA, BigDecimal centerB, double width, double height, int scale)
+    {
+        if(width == 0 || height == 0 || Double.isNaN(width + height) || Double.isInfinite(width + height))
+        {
+            throw new IllegalArgumentException("bad view size: " + width + " x " + height);
+        }
+        //normalize so the larger mantissa is in [1, 2)
+        int shift = Math.getExponent(Math.max(Math.abs(width), Math.abs(height)));
+        this.centerA = centerA;
+        this.centerB = centerB;
+        this.widthMantissa = Math.scalb(width, -shift);
+        this.heightMantissa = Math.scalb(height, -shift);
+        this.scale = scale + shift;
+
+        double magnitude = Math.max(1, Math.max(Math.abs(centerA.doubleValue()), Math.abs(centerB.doubleValue())));
+        double log10Size = Math.log10(Math.min(Math.abs(widthMantissa), Math.abs(heightMantissa)))
+            + this.scale * LOG10_2;
+        int digits = (int) Math.ceil(Math.log10(magnitude) - log10Size) + GUARD_DIGITS;
+        mc = new MathContext(Math.max(digits, MIN_DIGITS), RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     Constructs a View from the coordinates of its edges.
+     <p/>
+     @param left   the lowest number on the real axis
+     @param right  the highest number on the real axis
+     @param top    the number on the imaginary axis at the top of the screen
+     @param bottom the number on the imaginary axis at the bottom of the screen
+     @return the view
+     */
+    public static View fromBounds(BigDecimal left, BigDecimal right, BigDecimal top, BigDecimal bottom)
+    {
+        BigDecimal width = right.subtract(left);
+        BigDecimal height = bottom.subtract(top);
+        //find the scale from the exact differences so that tiny
+        //sizes don't underflow on the way to a double
+        int scale = Math.min(exponentOf(width), exponentOf(height));
+        return new View(
+            left.add(right).divide(TWO),
+            top.add(bottom).divide(TWO),
+            scaleDown(width, scale).doubleValue(),
+            scaleDown(height, scale).doubleValue(),
+            scale);
+    }
+
+    /**
+     Constructs a View from the coordinates of its edges.
+     <p/>
+     @param left   the lowest number on the real axis
+     @param right  the highest number on the real axis
+     @param top    the number on the imaginary axis at the top of the screen
+     @param bottom the number on the imaginary axis at the bottom of the screen
+     @return the view
+     */
+    public static View fromBounds(double left, double right, double top, double bottom)
+    {
+        return fromBounds(new BigDecimal(left), new BigDecimal(right),
+            new BigDecimal(top), new BigDecimal(bottom));
+    }
+
+    /**
+     Returns the real component of the center
+     @return the center's real component
+     */
+    public BigDecimal getCenterA()
+    {
+        return centerA;
+    }
+
+    /**
+     Returns the imaginary component of the center
+     @return the center's imaginary component
+     */
+    public BigDecimal getCenterB()
+    {
+        return centerB;
+    }
+
+    /**
+     Returns the power of 2 that the width and height mantissas are scaled by
+     @return the scale
+     */
+    public int getScale()
+    {
+        return scale;
+    }
+
+    /**
+     Returns the width, rounded to a double. Views narrower than about
+     1e-308 return 0; use {@link #getScale()} for those.
+     @return right - left
+     */
+    public double getWidth()
+    {
+        return Math.scalb(widthMantissa, scale);
+    }
+
+    /**
+     Returns the height, rounded to a double. Views shorter than about
+     1e-308 return 0; use {@link #getScale()} for those.
+     @return bottom - top
+     */
+    public double getHeight()
+    {
+        return Math.scalb(heightMantissa, scale);
+    }
+
+    /**
+     Returns the exact width
+     @return right - left
+     */
+    public BigDecimal getExactWidth()
+    {
+        return scaleUp(new BigDecimal(widthMantissa), scale);
+    }
+
+    /**
+     Returns the exact height
+     @return bottom - top
+     */
+    public BigDecimal getExactHeight()
+    {
+        return scaleUp(new BigDecimal(heightMantissa), scale);
+    }
+
+    /**
+     Returns the precision hint of this view: a math context with enough
+     digits to tell apart the pixels of the view on any reasonably sized
+     screen.
+     @return the math context
+     */
+    public MathContext getMathContext()
+    {
+        return mc;
+    }
+
+    /**
+     Returns the lowest number on the real axis
+     @return left
+     */
+    public BigDecimal getLeft()
+    {
+        return centerA.subtract(getExactWidth().divide(TWO), mc);
+    }
+
+    /**
+     Returns the highest number on the real axis
+     @return right
+     */
+    public BigDecimal getRight()
+    {
+        return centerA.add(getExactWidth().divide(TWO), mc);
+    }
+
+    /**
+     Returns the number on the imaginary axis at the top of the screen
+     @return top
+     */
+    public BigDecimal getTop()
+    {
+        return centerB.subtract(getExactHeight().divide(TWO), mc);
+    }
+
+    /**
+     Returns the number on the imaginary axis at the bottom of the screen
+     @return bottom
+     */
+    public BigDecimal getBottom()
+    {
+        return centerB.add(getExactHeight().divide(TWO), mc);
+    }
+
+    /**
+     Returns the point at a position on a screen that shows this view.
+     <p/>
+     @param x      the x coordinate on the screen, in pixels
+     @param y      the y coordinate on the screen, in pixels
+     @param width  the width of the screen in pixels
+     @param height the height of the screen in pixels
+     @return the point, rounded to the precision hint
+     */
+    public BigComplex pixelToCoord(double x, double y, int width, int height)
+    {
+        //offsets from the center pixel are small enough for doubles,
+        //which keeps the BigDecimal work to one add per component
+        double dx = Math.scalb(widthMantissa * (x - width / 2.0) / width, scale);
+        double dy = Math.scalb(heightMantissa * (y - height / 2.0) / height, scale);
+        if((dx == 0 && x != width / 2.0) || (dy == 0 && y != height / 2.0))
+        {
+            //the offset underflowed a double, so do it the slow way
+            BigDecimal a = centerA.add(getExactWidth().multiply(
+                new BigDecimal((x - width / 2.0) / width)), mc);
+            BigDecimal b = centerB.add(getExactHeight().multiply(
+                new BigDecimal((y - height / 2.0) / height)), mc);
+            return new BigComplex(a, b);
+        }
+        return new BigComplex(
+            centerA.add(new BigDecimal(dx), mc),
+            centerB.add(new BigDecimal(dy), mc));
+    }
+
+    /**
+     Returns the view of the rectangle between two positions on a screen
+     that shows this view, as when a zoom box is dragged.
+     <p/>
+     @param x0     the x coordinate of one corner, in pixels
+     @param y0     the y coordinate of one corner, in pixels
+     @param x1     the x coordinate of the opposite corner, in pixels
+     @param y1     the y coordinate of the opposite corner, in pixels
+     @param width  the width of the screen in pixels
+     @param height the height of the screen in pixels
+     @return the view of the rectangle
+     */
+    public View zoomToPixels(double x0, double y0, double x1, double y1, int width, int height)
+    {
+        BigComplex center = pixelToCoord((x0 + x1) / 2, (y0 + y1) / 2, width, height);
+        return new View(center.a(), center.b(),
+            widthMantissa * (x1 - x0) / width,
+            heightMantissa * (y1 - y0) / height,
+            scale);
+    }
+
+    /**
+     Returns this view zoomed in by a factor, keeping the point at a position
+     on the screen in place.
+     <p/>
+     @param x      the x coordinate of the fixed point, in pixels
+     @param y      the y coordinate of the fixed point, in pixels
+     @param factor how many times smaller the new view is
+     @param width  the width of the screen in pixels
+     @param height the height of the screen in pixels
+     @return the zoomed view
+     */
+    public View zoom(double x, double y, double factor, int width, int height)
+    {
+        //the new center is the point on the screen that ends up
+        //in the middle, which is 1 - 1/factor of the way to (x, y)
+        double toward = 1 - 1 / factor;
+        BigComplex center = pixelToCoord(
+            width / 2.0 + (x - width / 2.0) * toward,
+            height / 2.0 + (y - height / 2.0) * toward,
+            width, height);
+        return new View(center.a(), center.b(),
+            widthMantissa / factor, heightMantissa / factor, scale);
+    }
+
+    /**
+     Returns the view of a band of rows of a screen that shows this view.
+     The band is as wide as this view, so it can be used at any zoom depth.
+     <p/>
+     @param firstRow the first row of the band, inclusive
+     @param lastRow  the row after the last row of the band, exclusive
+     @param height   the height of the screen in pixels
+     @return the view of rows [firstRow, lastRow)
+     */
+    public View band(int firstRow, int lastRow, int height)
+    {
+        //the middle of the band is (firstRow + lastRow - height) / 2 rows
+        //from the middle of the screen
+        BigDecimal offset = getExactHeight().multiply(BigDecimal.valueOf(firstRow + lastRow - height))
+            .divide(BigDecimal.valueOf(2L * height), mc);
+        return new View(centerA, centerB.add(offset, mc),
+            widthMantissa, heightMantissa * (lastRow - firstRow) / height, scale);
+    }
+
+    /**
+     Reads a view in the .mand format: four lines holding left, right, top
+     and bottom as decimal numbers.
+     <p/>
+     @param in the reader to read from
+     @return the view
+     @throws IOException if the view can't be read
+     @throws NumberFormatException if a line isn't a number
+     */
+    public static View read(BufferedReader in) throws IOException
+    {
+        BigDecimal[] bounds = new BigDecimal[4];
+        for(int i = 0; i < 4; i++)
+        {
+            String line = in.readLine();
+            if(line == null)
+            {
+                throw new IOException("a view needs 4 lines, found " + i);
+            }
+            bounds[i] = new BigDecimal(line.trim());
+        }
+        return fromBounds(bounds[0], bounds[1], bounds[2], bounds[3]);
+    }
+
+    /**
+     Writes this view in the .mand format, see {@link #read(BufferedReader)}.
+     <p/>
+     @param out the writer to write to
+     */
+    public void write(PrintWriter out)
+    {
+        out.println(getLeft().toString());
+        out.println(getRight().toString());
+        out.println(getTop().toString());
+        out.println(getBottom().toString());
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if(!(o instanceof View))
+        {
+            return false;
+        }
+        View other = (View) o;
+        return centerA.compareTo(other.centerA) == 0
+            && centerB.compareTo(other.centerB) == 0
+            && widthMantissa == other.widthMantissa
+            && heightMantissa == other.heightMantissa
+            && scale == other.scale;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = centerA.stripTrailingZeros().hashCode();
+        hash = 31 * hash + centerB.stripTrailingZeros().hashCode();
+        hash = 31 * hash + Double.valueOf(widthMantissa).hashCode();
+        hash = 31 * hash + Double.valueOf(heightMantissa).hashCode();
+        return 31 * hash + scale;
+    }
+
+    @Override
+    public String toString()
+    {
+        MathContext digits = new MathContext(6);
+        return "View[center " + new BigComplex(centerA.round(mc), centerB.round(mc))
+            + ", size " + new BigDecimal(widthMantissa).round(digits) + " x "
+            + new BigDecimal(heightMantissa).round(digits) + " x 2^" + scale + "]";
+    }
+
+    //the power of 2 at or below |value|
+    private static int exponentOf(BigDecimal value)
+    {
+        if(value.signum() == 0)
+        {
+            throw new IllegalArgumentException("a view can't be empty");
+        }
+        //log2 |value| = log2 unscaled - scale * log2 10
+        BigInteger unscaled = value.unscaledValue().abs();
+        return (int) Math.floor(unscaled.bitLength() - 1 - value.scale() / LOG10_2);
+    }
+
+    //value * 2^-scale, exactly enough to round to a double
+    private static BigDecimal scaleDown(BigDecimal value, int scale)
+    {
+        return scaleUp(value, -scale);
+    }
+
+    //value * 2^scale, exactly
+    private static BigDecimal scaleUp(BigDecimal value, int scale)
+    {
+        if(scale >= 0)
+        {
+            return value.multiply(new BigDecimal(BigInteger.ONE.shiftLeft(scale)));
+        }
+        //x / 2^k = x * 5^k / 10^k
+        return value.multiply(new BigDecimal(BigInteger.valueOf(5).pow(-scale))).movePointLeft(-scale);
+    }
+}